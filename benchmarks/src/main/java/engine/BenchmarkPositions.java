@@ -0,0 +1,22 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// the perft suite positions, one benchmark run per position
+@State(Scope.Thread)
+public class BenchmarkPositions {
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    public ChessBoard board;
+    public String name;
+
+    @Setup
+    public void setup() {
+        name = PerftSuite.POSITIONS[position][0];
+        board = new ChessBoard(PerftSuite.POSITIONS[position][1]);
+    }
+}
@@ -0,0 +1,77 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static engine.BitBoardFunctions.getPosOfLeastSigBit;
+import static engine.BitBoardFunctions.orBitBoardArray;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveGenerationBenchmark {
+    private final int[] moves = new int[ChessBoard.MAX_MOVES];
+
+    // the GUI facing list, allocates a Move per legal move
+    @Benchmark
+    public ArrayList<Move> getLegalPossibleMoves(BenchmarkPositions positions) {
+        return positions.board.getLegalPossibleMoves();
+    }
+
+    @Benchmark
+    public int generateLegalMoves(BenchmarkPositions positions) {
+        return positions.board.generateLegalMoves(moves);
+    }
+
+    // make and undo every legal move of the position once
+    @Benchmark
+    public long makeUndoAllMoves(BenchmarkPositions positions) {
+        ChessBoard board = positions.board;
+        int moveCount = board.generateLegalMoves(moves);
+        long keys = 0;
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            keys ^= board.getZobristKey();
+            board.undoLastMove();
+        }
+        return keys;
+    }
+
+    // every square checked for attacks by the side not to move
+    @Benchmark
+    public void isSquareAttacked(BenchmarkPositions positions, Blackhole blackhole) {
+        ChessBoard board = positions.board;
+        long friendly = orBitBoardArray(board.isWhiteTurn() ? board.whiteBitBoards : board.blackBitBoards);
+        long opponent = orBitBoardArray(board.isWhiteTurn() ? board.blackBitBoards : board.whiteBitBoards);
+        for (int pos = 0; pos < 64; pos++) {
+            blackhole.consume(board.isSquareAttacked(pos, friendly, opponent));
+        }
+    }
+
+    // queen attacks from every occupied square
+    @Benchmark
+    public long getSlidingMagicAttack(BenchmarkPositions positions) {
+        ChessBoard board = positions.board;
+        long blockers = orBitBoardArray(board.whiteBitBoards) | orBitBoardArray(board.blackBitBoards);
+        long attacks = 0;
+        long remaining = blockers;
+        while (remaining != 0) {
+            int pos = getPosOfLeastSigBit(remaining);
+            attacks ^= ChessBoard.precompute.getSlidingMagicAttack(pos, blockers, 1);
+            remaining ^= MoveGenerationPrecompute.startingBitBoards[pos];
+        }
+        return attacks;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long perft3(BenchmarkPositions positions) {
+        return positions.board.perft(3);
+    }
+}
@@ -0,0 +1,50 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class SearchBenchmark {
+    @Param({"4"})
+    public int depth;
+
+    // null move pruning and late move reductions on or off, for A/B runs
+    @Param({"true", "false"})
+    public boolean selective;
+
+    // the piece-square evaluation or an NNUE one, random weights of a realistic size since no network ships
+    @Param({"classical", "nnue"})
+    public String evaluator;
+
+    private ChessEngine engine;
+
+    @Setup
+    public void setup() {
+        engine = new ChessEngine(16, 1);
+        engine.setNullMovePruning(selective);
+        engine.setLateMoveReductions(selective);
+        if (evaluator.equals("nnue")) {
+            NnueNetwork network = NnueNetwork.createRandom(256, 32, 32, 1);
+            engine.setEvaluator(() -> new NnueEvaluator(network));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int evalBoard(BenchmarkPositions positions) {
+        return engine.evalBoard(positions.board, positions.board.isWhiteTurn());
+    }
+
+    // every search starts from an empty table so runs are comparable
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Move getBestMove(BenchmarkPositions positions) {
+        engine.clearTranspositionTable();
+        return engine.getBestMove(positions.board, SearchLimits.depth(depth));
+    }
+}
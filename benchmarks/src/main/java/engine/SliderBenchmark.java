@@ -0,0 +1,62 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Rook plus bishop attack lookups on random occupancies with the magic and the PEXT backend
+// the search uses the backend picked at startup, compare it in full with
+// MoveGenerationBenchmark -jvmArgsAppend -Dengine.sliders=pext
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SliderBenchmark {
+    private static final int LOOKUPS = 4096;
+
+    @Param({"magic", "pext"})
+    public String backend;
+
+    private final long[] occupancies = new long[LOOKUPS];
+    private final int[] squares = new int[LOOKUPS];
+
+    @Setup
+    public void setup() {
+        new ChessBoard(); // loads the tables
+        if (backend.equals("pext")) {
+            if (!MoveGenerationPrecompute.isLongCompressAvailable()) {
+                System.out.println("Long.compress not available on this JVM (needs JDK 19+), PEXT uses the software fallback");
+            }
+            if (!MoveGenerationPrecompute.USE_PEXT) {
+                MoveGenerationPrecompute.generatePextBitBoards();
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            occupancies[i] = random.nextLong() & random.nextLong();
+            squares[i] = random.nextInt(64);
+        }
+    }
+
+    // LOOKUPS rook and bishop lookups per operation
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long lookup() {
+        long checksum = 0;
+        if (backend.equals("pext")) {
+            for (int i = 0; i < LOOKUPS; i++) {
+                checksum += MoveGenerationPrecompute.getRookAttackPext(squares[i], occupancies[i])
+                        ^ MoveGenerationPrecompute.getBishopAttackPext(squares[i], occupancies[i]);
+            }
+        } else {
+            for (int i = 0; i < LOOKUPS; i++) {
+                checksum += MoveGenerationPrecompute.getRookAttackMagic(squares[i], occupancies[i])
+                        ^ MoveGenerationPrecompute.getBishopAttackMagic(squares[i], occupancies[i]);
+            }
+        }
+        return checksum;
+    }
+}
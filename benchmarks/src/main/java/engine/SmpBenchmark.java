@@ -0,0 +1,35 @@
+package engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Time to depth for the Lazy SMP search at each thread count, the speedup is the 1 thread
+// score divided by the others; override the counts with -p threads=1,2,4,...
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class SmpBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"6"})
+    public int depth;
+
+    private ChessEngine engine;
+
+    @Setup
+    public void setup() {
+        engine = new ChessEngine(64, threads);
+    }
+
+    // every search starts from an empty table so no position starts warm
+    @Benchmark
+    public Move getBestMove(BenchmarkPositions positions) {
+        engine.clearTranspositionTable();
+        return engine.getBestMove(positions.board, SearchLimits.depth(depth));
+    }
+}
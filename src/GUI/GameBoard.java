@@ -8,6 +8,9 @@ package GUI;
 
 import engine.ChessBoard;
 import engine.ChessEngine;
+import engine.MoveEncoding;
+import engine.SearchListener;
+import engine.SearchProgress;
 
 import java.awt.*;
 import java.awt.event.*;
@@ -17,6 +20,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 
@@ -63,7 +67,16 @@ public class GameBoard extends JPanel {
     private int posSelected;
 
     public boolean isAIPlayingBlack = true;
-    private static final ChessEngine aiEngine = new ChessEngine();
+    public boolean isAIPondering = true; // think about the expected reply during the human's turn
+    private static final ChessEngine aiEngine = new ChessEngine(64, Runtime.getRuntime().availableProcessors());
+    // the AI searches on the engine's own thread so the window stays responsive,
+    // its move is applied back on the event dispatch thread
+    private Future<Move> aiSearch; // null unless the AI is thinking
+    private long aiSearchKey; // position the AI is thinking about
+    private long aiSearchStartTime;
+    // after its move the AI keeps searching the reply it expects (second move of its PV)
+    private Future<Move> ponderSearch; // null unless pondering
+    private int ponderMove;
 
     /**
      * Initializes the game board.
@@ -82,6 +95,23 @@ public class GameBoard extends JPanel {
         PIECE_TO_IMAGE = new HashMap<>(); // init hash map
 
         posSelected = -1; // init variable
+
+        aiEngine.setSearchListener(new SearchListener() {
+            @Override
+            public void iterationCompleted(SearchProgress progress) {
+                SwingUtilities.invokeLater(() -> {
+                    if (aiSearch != null) {
+                        status.setText("AI thinking... depth " + progress.depth + ", "
+                                + progress.getNodesPerSecond() / 1000 + "k nodes/s, " + progress.getPrincipalVariationString());
+                    }
+                });
+            }
+
+            @Override
+            public void searchFinished(Move bestMove) {
+                SwingUtilities.invokeLater(() -> applyAIMove(bestMove));
+            }
+        });
         // initialize PIECE_TO_IMAGE
         try {
             // white pieces
@@ -116,36 +146,23 @@ public class GameBoard extends JPanel {
                 int pos = getClickPos(p);
                 System.out.println(posSelected);
                 System.out.println(pos);
-                if (posSelected == -1) return; // short circuit
+                if (posSelected == -1 || aiSearch != null) return; // short circuit, no moving while the AI thinks
                 int moveIndex = getValidMoveIndex(posSelected, pos);
                 if (moveIndex != -1) {
                     ArrayList<Move> possibleNextMoves = board.getLegalPossibleMoves();
-                    board.makeMove(possibleNextMoves.get(moveIndex));
+                    Move humanMove = possibleNextMoves.get(moveIndex);
+                    board.makeMove(humanMove);
                     System.out.println("Moves: " + possibleNextMoves);
                     System.out.println(Arrays.deepToString(board.getMovePairs()));
                     posSelected = -1;
+                    resolvePonder(MoveEncoding.encode(humanMove));
                 }
                 // updates the model given the coordinates of the mouseclick
                 updateStatus(); // updates the status JLabel
                 repaint(); // repaints the game board
 
-                SwingUtilities.invokeLater(() -> {
-                    // if AI is playing get best move
-                    if (isAIPlayingBlack && !board.isWhiteTurn() && board.checkWinner(board.getLegalPossibleMoves()) == 0) {
-                        long startTime = System.currentTimeMillis();
-                        Move aiMove = aiEngine.getBestMove(board);
-                        long endTime = System.currentTimeMillis();
-                        board.makeMove(aiMove);
-                        System.out.println("Nodes Searched: " + aiEngine.nodesSearched);
-                        System.out.println("Time Searched (ms): " + (endTime-startTime));
-                        System.out.println("Nodes per Second: " + (((float) aiEngine.nodesSearched) / ((float) (endTime-startTime))) * 1000.0);
-                        System.out.println("Pruned: " + aiEngine.pruneAmount);
-                        aiEngine.nodesSearched = 0;
-                        // don't have to reset posSelected because I already did above
-                    }
-                    updateStatus();
-                    repaint();
-                });
+                // if AI is playing get best move
+                startAISearch();
             }
         });
         addMouseListener(new MouseAdapter() {
@@ -167,6 +184,60 @@ public class GameBoard extends JPanel {
             }
         });
     }
+    // starts the AI search if it is the AI's turn, the move arrives in applyAIMove
+    private void startAISearch() {
+        if (aiSearch == null && isAIPlayingBlack && !board.isWhiteTurn() && board.checkWinner(board.getLegalPossibleMoves()) == 0) {
+            aiSearchKey = board.getZobristKey();
+            aiSearchStartTime = System.currentTimeMillis();
+            aiSearch = aiEngine.startSearch(board);
+            status.setText("AI thinking...");
+        }
+    }
+
+    // called on the event dispatch thread when the AI search finishes
+    private void applyAIMove(Move aiMove) {
+        if (aiSearch == null || board.getZobristKey() != aiSearchKey) return; // the game was reset meanwhile
+        aiSearch = null;
+        long endTime = System.currentTimeMillis();
+        if (aiMove != null) {
+            board.makeMove(aiMove);
+        }
+        System.out.println("Nodes Searched: " + aiEngine.nodesSearched);
+        System.out.println("Time Searched (ms): " + (endTime-aiSearchStartTime));
+        System.out.println("Nodes per Second: " + (((float) aiEngine.nodesSearched) / ((float) (endTime-aiSearchStartTime))) * 1000.0);
+        System.out.println("Pruned: " + aiEngine.pruneAmount);
+        aiEngine.nodesSearched = 0;
+        // don't have to reset posSelected because mouseReleased already did
+        updateStatus();
+        repaint();
+        startPonder();
+    }
+
+    // ponder on the reply the AI expects, if its principal variation has one
+    private void startPonder() {
+        int[] principalVariation = aiEngine.getPrincipalVariation();
+        if (isAIPondering && principalVariation.length >= 2 && board.checkWinner(board.getLegalPossibleMoves()) == 0) {
+            ponderMove = principalVariation[1];
+            ponderSearch = aiEngine.startPonder(board, ponderMove);
+        }
+    }
+
+    // the human moved: if the AI predicted it the ponder search carries on as the AI's search,
+    // otherwise it is thrown away and startAISearch starts a fresh one
+    private void resolvePonder(int playedMove) {
+        if (ponderSearch == null) return;
+        if (isAIPlayingBlack && MoveEncoding.getCompact(playedMove) == MoveEncoding.getCompact(ponderMove)) {
+            aiEngine.ponderHit();
+            aiSearch = ponderSearch;
+            aiSearchKey = board.getZobristKey();
+            aiSearchStartTime = System.currentTimeMillis();
+            status.setText("AI thinking...");
+        } else {
+            ponderSearch.cancel(true);
+        }
+        ponderSearch = null;
+    }
+
     private static BufferedImage scaleImage(BufferedImage originalImage, int width, int height) {
         BufferedImage scaledImage = new BufferedImage(width, height, originalImage.getType());
         AffineTransform at = AffineTransform.getScaleInstance(
@@ -204,6 +275,14 @@ public class GameBoard extends JPanel {
      * (Re-)sets the game to its initial state.
      */
     public void reset() {
+        if (aiSearch != null) {
+            aiSearch.cancel(true);
+            aiSearch = null;
+        }
+        if (ponderSearch != null) {
+            ponderSearch.cancel(true);
+            ponderSearch = null;
+        }
         board.reset();
         status.setText("White to Move");
 
@@ -71,6 +71,14 @@ public class RunChess implements Runnable {
         });
         control_panel.add(aiToggle);
 
+        // Ponder toggle button
+        final JButton ponderToggle = new JButton("Ponder: On");
+        ponderToggle.addActionListener(e -> {
+            board.isAIPondering = !board.isAIPondering;
+            ponderToggle.setText(board.isAIPondering ? "Ponder: On" : "Ponder: Off");
+        });
+        control_panel.add(ponderToggle);
+
         // Put the frame on the screen
         frame.pack();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -1,10 +0,0 @@
-package engine;
-
-public class AIEvaluation {
-    public Move move;
-    public int score;
-    public AIEvaluation(Move move, int score) {
-        this.move = move;
-        this.score = score;
-    }
-}
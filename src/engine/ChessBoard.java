@@ -1,10 +1,13 @@
 package engine;
 
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Stack;
+import java.util.LinkedHashMap;
+import java.util.Random;
 import java.util.ArrayList;
 
 import static engine.MoveGenerationPrecompute.*;
+import static engine.EvalTables.*;
 
 import static engine.BitBoardFunctions.getPosOfLeastSigBit;
 import static engine.BitBoardFunctions.orBitBoardArray;
@@ -16,15 +19,51 @@ public class ChessBoard {
     private static final long RIGHT_SIDE_BOARD = 0x101010101010101L;
     private static final long TOP_SIDE_BOARD = 0xFF00000000000000L;
     private static final long BOTTOM_SIDE_BOARD = 0xFFL;
+    private static final long LIGHT_SQUARES = 0xAA55AA55AA55AA55L; // a8 (bit 63) is a light square
 
     public static final char EMPTY_SQUARE = '.'; // char representation if no piece is there
 
     private static final long WHITE_RIGHT_CASTLE_MASK = 0x6L;
-    private static final long WHITE_LEFT_CASTLE_MASK = 0x30L;
+    private static final long WHITE_LEFT_CASTLE_MASK = 0x70L;
 
     // NOTE: absolute right according to white POV
     private static final long BLACK_RIGHT_CASTLE_MASK = 0x600000000000000L;
-    private static final long BLACK_LEFT_CASTLE_MASK = 0x3000000000000000L;
+    private static final long BLACK_LEFT_CASTLE_MASK = 0x7000000000000000L;
+
+    // ZOBRIST HASHING
+    // fixed seed so hash keys (and therefore searches) are reproducible between runs
+    private static final long ZOBRIST_SEED = 0x4B6F616C61L;
+    private static final long[][][] ZOBRIST_PIECE_KEYS = new long[2][6][64]; // [white = 0, black = 1][piece][pos]
+    private static final long[] ZOBRIST_CASTLE_KEYS = new long[16]; // indexed by castle rights bitmask
+    private static final long[] ZOBRIST_EN_PASSANT_KEYS = new long[8]; // indexed by file of the double pushed pawn
+    private static final long ZOBRIST_BLACK_TO_MOVE_KEY;
+
+    static {
+        Random random = new Random(ZOBRIST_SEED);
+        for (int color = 0; color < 2; color++) {
+            for (int piece = 0; piece < 6; piece++) {
+                for (int pos = 0; pos < 64; pos++) {
+                    ZOBRIST_PIECE_KEYS[color][piece][pos] = random.nextLong();
+                }
+            }
+        }
+        // one key per castle right, table entry is the xor of the rights in the mask
+        long[] castleRightKeys = new long[4];
+        for (int i = 0; i < 4; i++) {
+            castleRightKeys[i] = random.nextLong();
+        }
+        for (int mask = 0; mask < 16; mask++) {
+            for (int i = 0; i < 4; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    ZOBRIST_CASTLE_KEYS[mask] ^= castleRightKeys[i];
+                }
+            }
+        }
+        for (int file = 0; file < 8; file++) {
+            ZOBRIST_EN_PASSANT_KEYS[file] = random.nextLong();
+        }
+        ZOBRIST_BLACK_TO_MOVE_KEY = random.nextLong();
+    }
 
 
     // DEFAULT BOARD POSITION
@@ -59,14 +98,105 @@ public class ChessBoard {
             blackPawnBoard
     };
     private boolean isWhiteTurn = true;
-    private CastleState castleState = new CastleState();
-    public Stack<Move> moveStack = new Stack<>();
 
+    public static final String STARTING_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // castle rights bitmask, bit 0 = white right, bit 1 = white left, bit 2 = black right, bit 3 = black left
+    private static final int WHITE_RIGHT_CASTLE = 1;
+    private static final int WHITE_LEFT_CASTLE = 2;
+    private static final int BLACK_RIGHT_CASTLE = 4;
+    private static final int BLACK_LEFT_CASTLE = 8;
+    private static final int ALL_CASTLE_RIGHTS = 15;
+    // castle rights that survive a move from or to pos (king and rook starting squares clear their rights)
+    private static final int[] CASTLE_RIGHTS_AFTER_TOUCHING = new int[64];
+
+    static {
+        Arrays.fill(CASTLE_RIGHTS_AFTER_TOUCHING, ALL_CASTLE_RIGHTS);
+        CASTLE_RIGHTS_AFTER_TOUCHING[60] &= ~(WHITE_RIGHT_CASTLE | WHITE_LEFT_CASTLE); // white king
+        CASTLE_RIGHTS_AFTER_TOUCHING[63] &= ~WHITE_RIGHT_CASTLE; // white right rook
+        CASTLE_RIGHTS_AFTER_TOUCHING[56] &= ~WHITE_LEFT_CASTLE; // white left rook
+        CASTLE_RIGHTS_AFTER_TOUCHING[4] &= ~(BLACK_RIGHT_CASTLE | BLACK_LEFT_CASTLE); // black king
+        CASTLE_RIGHTS_AFTER_TOUCHING[7] &= ~BLACK_RIGHT_CASTLE; // black right rook
+        CASTLE_RIGHTS_AFTER_TOUCHING[0] &= ~BLACK_LEFT_CASTLE; // black left rook
+    }
+
+    private int castleRights = ALL_CASTLE_RIGHTS;
+    private int enPassantPos = -1; // pos of the pawn that just double pushed (can be taken enPassant), -1 if none
+    private long zobristKey;
+    private long pawnKey; // the pawns' part of zobristKey alone, keys the engine's pawn hash table
+    private int halfmoveClock; // plies since the last capture or pawn move, for the fifty move rule
+    private int startingGamePly; // plies played before ply 0, from the FEN's fullmove number
+
+    // incrementally updated evaluation terms, see EvalTables
+    private int openingScore;
+    private int endgameScore;
+    private int phaseMaterial;
+    // first layer of an NNUE evaluator, told about every piece change, null unless one is evaluating this board
+    private NnueAccumulator accumulator;
+
+    // undo stacks, index ply holds the state from before the move played at that ply
+    private static final int INITIAL_HISTORY_SIZE = 256;
+    private int ply = 0;
+    private int[] moveHistory = new int[INITIAL_HISTORY_SIZE];
+    private int[] castleRightsHistory = new int[INITIAL_HISTORY_SIZE];
+    private int[] enPassantHistory = new int[INITIAL_HISTORY_SIZE];
+    private long[] zobristHistory = new long[INITIAL_HISTORY_SIZE];
+    private long[] pawnKeyHistory = new long[INITIAL_HISTORY_SIZE];
+    private int[] openingScoreHistory = new int[INITIAL_HISTORY_SIZE];
+    private int[] endgameScoreHistory = new int[INITIAL_HISTORY_SIZE];
+    private int[] phaseMaterialHistory = new int[INITIAL_HISTORY_SIZE];
+    private int[] halfmoveClockHistory = new int[INITIAL_HISTORY_SIZE];
+
+    // maximum number of moves in any chess position is 218
+    public static final int MAX_MOVES = 256;
+    // scratch buffer for the Move based (GUI) api
+    private final int[] guiMoveBuffer = new int[MAX_MOVES];
+    private final int[] castleMoveBuffer = new int[2];
+
+    // which moves generateLegalMoves writes
+    private static final int GENERATE_ALL = 0;
+    private static final int GENERATE_CAPTURES = 1;
+    private static final int GENERATE_QUIETS = 2;
 
-    private static final MoveGenerationPrecompute precompute = new MoveGenerationPrecompute();
+
+    static final MoveGenerationPrecompute precompute = new MoveGenerationPrecompute();
 
 
     public ChessBoard() {
+        zobristKey = computeZobristKey();
+        pawnKey = computePawnKey();
+        computeEval();
+    }
+
+    public ChessBoard(String fen) {
+        loadFen(fen);
+    }
+
+    // independent copy, used to give each search thread its own board
+    public ChessBoard(ChessBoard other) {
+        whiteBitBoards = other.whiteBitBoards.clone();
+        blackBitBoards = other.blackBitBoards.clone();
+        isWhiteTurn = other.isWhiteTurn;
+        castleRights = other.castleRights;
+        enPassantPos = other.enPassantPos;
+        zobristKey = other.zobristKey;
+        pawnKey = other.pawnKey;
+        openingScore = other.openingScore;
+        endgameScore = other.endgameScore;
+        phaseMaterial = other.phaseMaterial;
+        halfmoveClock = other.halfmoveClock;
+        startingGamePly = other.startingGamePly;
+        ply = other.ply;
+        moveHistory = other.moveHistory.clone();
+        castleRightsHistory = other.castleRightsHistory.clone();
+        enPassantHistory = other.enPassantHistory.clone();
+        zobristHistory = other.zobristHistory.clone();
+        pawnKeyHistory = other.pawnKeyHistory.clone();
+        openingScoreHistory = other.openingScoreHistory.clone();
+        endgameScoreHistory = other.endgameScoreHistory.clone();
+        phaseMaterialHistory = other.phaseMaterialHistory.clone();
+        halfmoveClockHistory = other.halfmoveClockHistory.clone();
+        accumulator = other.accumulator == null ? null : new NnueAccumulator(other.accumulator);
     }
 
     // public access methods
@@ -74,24 +204,166 @@ public class ChessBoard {
         return isWhiteTurn;
     }
 
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    // zobrist key of the pawns alone, positions with the same pawns have the same key
+    public long getPawnKey() {
+        return pawnKey;
+    }
+
+    // number of moves played since the start position
+    public int getPly() {
+        return ply;
+    }
+
+    public NnueAccumulator getAccumulator() {
+        return accumulator;
+    }
+
+    // from now on makeMove and undoLastMove keep accumulator up to date, null to stop
+    public void setAccumulator(NnueAccumulator accumulator) {
+        this.accumulator = accumulator;
+        if (accumulator != null) {
+            accumulator.invalidate(); // summed from this position when it is first read
+        }
+    }
+
+    // castle rights bitmask, 0 once nobody can castle
+    public int getCastleRights() {
+        return castleRights;
+    }
+
+    // pos of the pawn that just double pushed, -1 if none
+    public int getEnPassantPos() {
+        return enPassantPos;
+    }
+
+    // FEN fullmove number, starts at 1 and goes up after every black move
+    public int getFullmoveNumber() {
+        return (startingGamePly + ply) / 2 + 1;
+    }
+
+    // packed form of the last move played, NO_MOVE if none
+    public int getLastMove() {
+        return ply == 0 ? MoveEncoding.NO_MOVE : moveHistory[ply - 1];
+    }
+
+    public CastleState getCastleState() {
+        return new CastleState(
+                (castleRights & WHITE_RIGHT_CASTLE) != 0, (castleRights & WHITE_LEFT_CASTLE) != 0,
+                (castleRights & BLACK_RIGHT_CASTLE) != 0, (castleRights & BLACK_LEFT_CASTLE) != 0);
+    }
+
+    // computes the pawn key from scratch (makeMove and undoLastMove keep it updated incrementally)
+    public long computePawnKey() {
+        long key = 0;
+        for (int color = 0; color < 2; color++) {
+            long pawns = color == 0 ? whiteBitBoards[5] : blackBitBoards[5];
+            while (pawns != 0) {
+                int pos = getPosOfLeastSigBit(pawns);
+                key ^= ZOBRIST_PIECE_KEYS[color][5][pos];
+                pawns ^= startingBitBoards[pos];
+            }
+        }
+        return key;
+    }
+
+    // computes the zobrist key from scratch (makeMove and undoLastMove keep it updated incrementally)
+    public long computeZobristKey() {
+        long key = 0;
+        for (int piece = 0; piece < 6; piece++) {
+            long whitePieces = whiteBitBoards[piece];
+            while (whitePieces != 0) {
+                int pos = getPosOfLeastSigBit(whitePieces);
+                key ^= ZOBRIST_PIECE_KEYS[0][piece][pos];
+                whitePieces ^= startingBitBoards[pos];
+            }
+            long blackPieces = blackBitBoards[piece];
+            while (blackPieces != 0) {
+                int pos = getPosOfLeastSigBit(blackPieces);
+                key ^= ZOBRIST_PIECE_KEYS[1][piece][pos];
+                blackPieces ^= startingBitBoards[pos];
+            }
+        }
+        key ^= ZOBRIST_CASTLE_KEYS[castleRights];
+        if (enPassantPos != -1) {
+            key ^= ZOBRIST_EN_PASSANT_KEYS[enPassantPos % 8];
+        }
+        if (!isWhiteTurn) {
+            key ^= ZOBRIST_BLACK_TO_MOVE_KEY;
+        }
+        return key;
+    }
+
     // -1 = black win, 0 = no winner, 1 = white win, 2 = draw
     public int checkWinner(ArrayList<Move> moves) {
-        long whitePieces = orBitBoardArray(whiteBitBoards);
-        long blackPieces = orBitBoardArray(blackBitBoards);
-        if (isWhiteTurn && moves.isEmpty()) {
-            if (isKingInCheck(whiteBitBoards[0], whitePieces, blackPieces)) {
-                return -1;
-            } else { // stalemate, no other moves but king not in check
-                return 2;
-            }
-        } else if (!isWhiteTurn && moves.isEmpty()) {
-            if (isKingInCheck(blackBitBoards[0], whitePieces, blackPieces)) {
-                return 1;
+        return checkWinner(moves.size());
+    }
+
+    public int checkWinner(int legalMoveCount) {
+        if (legalMoveCount == 0) {
+            if (isInCheck()) {
+                return isWhiteTurn ? -1 : 1;
             }
+            return 2; // stalemate, no other moves but king not in check
+        }
+        if (isThreefoldRepetition() || isFiftyMoveDraw() || isInsufficientMaterial()) {
+            return 2;
         }
         return 0;
     }
 
+    // DRAW RULES
+    // zobristHistory holds the key of every earlier position. Only positions since the last capture
+    // or pawn move (halfmoveClock plies back) with the same side to move can be repeats of this one
+
+    // this position occurred before, the search scores that as a draw right away since
+    // whatever was possible then is possible again
+    public boolean isRepetition() {
+        int limit = Math.max(0, ply - halfmoveClock);
+        for (int i = ply - 4; i >= limit; i -= 2) {
+            if (zobristHistory[i] == zobristKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the position occurred twice before, the rule for the actual game
+    public boolean isThreefoldRepetition() {
+        int limit = Math.max(0, ply - halfmoveClock);
+        int count = 0;
+        for (int i = ply - 4; i >= limit; i -= 2) {
+            if (zobristHistory[i] == zobristKey && ++count == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    // fifty moves by each side without a capture or pawn move (ignores a mate on the last move)
+    public boolean isFiftyMoveDraw() {
+        return halfmoveClock >= 100;
+    }
+
+    // neither side can ever mate: no pawns, rooks or queens, and at most one minor piece
+    // or only bishops that all stand on squares of the same color
+    public boolean isInsufficientMaterial() {
+        long majorPiecesAndPawns = whiteBitBoards[1] | whiteBitBoards[2] | whiteBitBoards[5]
+                | blackBitBoards[1] | blackBitBoards[2] | blackBitBoards[5];
+        if (majorPiecesAndPawns != 0) return false;
+        long knights = whiteBitBoards[4] | blackBitBoards[4];
+        long bishops = whiteBitBoards[3] | blackBitBoards[3];
+        if (Long.bitCount(knights | bishops) <= 1) return true;
+        return knights == 0 && ((bishops & LIGHT_SQUARES) == 0 || (bishops & ~LIGHT_SQUARES) == 0);
+    }
+
     public char[][] getBoardArray() {
         char[][] returnBoard = new char[8][8];
         for (int row = 0; row < 8; row++) {
@@ -121,11 +393,11 @@ public class ChessBoard {
 
     // get a list of 2 element arrays: [source pos, target pos]
     public int[][] getMovePairs() {
-        ArrayList<Move> moves = getLegalPossibleMoves();
-        int[][] movePairs = new int[moves.size()][];
-        for (int i = 0; i < moves.size(); i++) {
-            Move move = moves.get(i);
-            movePairs[i] = new int[]{move.source, move.target};
+        int moveCount = generateLegalMoves(guiMoveBuffer);
+        int[][] movePairs = new int[moveCount][];
+        for (int i = 0; i < moveCount; i++) {
+            int move = guiMoveBuffer[i];
+            movePairs[i] = new int[]{MoveEncoding.getSource(move), MoveEncoding.getTarget(move)};
         }
         return movePairs;
     }
@@ -167,7 +439,7 @@ public class ChessBoard {
                         // get rid of any second row moves or if there is an opponent there do nothing
                         moveMask = whitePawnMoveMasks[pos] & ~blockerBitBoard & ~(BOTTOM_SIDE_BOARD << 24);
                     }
-                    moveMask |= (whitePawnAttackMasks[pos] & blockerBitBoard); // only can go there if takes
+                    moveMask |= (whitePawnAttackMasks[pos] & opponentBitBoard); // only can go there if takes
                 } else { // black pawn moves
                     if ((blackPawnMoveMasks[pos] & blockerBitBoard) == 0) { // no overlap in opponent piece
                         // can double push potentially
@@ -184,52 +456,40 @@ public class ChessBoard {
         return moveMask;
     }
 
+    // checks if pos is attacked by the side that isn't to move
     public boolean isSquareAttacked(int pos, long friendly, long opponentBitBoard) {
         long blockerBitBoard = friendly | opponentBitBoard;
+        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
 
-        // array of mask of how each piece could attack pos
-        long[] potentialAttacks = new long[6];
-        for (int piece = 0; piece < 6; piece++) {
-            switch (piece) {
-                case 0: // king
-                    potentialAttacks[piece] = kingAttackMasks[pos];
-                    break;
-                case 1: // queen
-                case 2: // rook
-                case 3: // bishop
-                    // potentialAttacks[piece] = getSlidingAttackWithBlockers(pos, blockerBitBoard, piece);
-                    potentialAttacks[piece] = precompute.getSlidingMagicAttack(pos, blockerBitBoard, piece);
-                    break;
-                case 4: // knight
-                    potentialAttacks[piece] = knightAttackMasks[pos];
-                    break;
-                case 5: // pawn
-                    if (isWhiteTurn && ((startingBitBoards[pos] & TOP_MASK) == 0)) { // not on top row
-                        if ((startingBitBoards[pos] & LEFT_MASK) == 0) { // not on left side
-                            potentialAttacks[piece] |= startingBitBoards[pos-9];
-                        }
-                        if ((startingBitBoards[pos] & RIGHT_MASK) == 0) { // not on right side
-                            potentialAttacks[piece] |= startingBitBoards[pos-7];
-                        }
-                    } else if (!isWhiteTurn && (((startingBitBoards[pos] & BOTTOM_MASK) == 0))) {                         // not on bottom row;
-                        if (((startingBitBoards[pos] & LEFT_MASK) == 0)) { // not on left side
-                            potentialAttacks[piece] |= startingBitBoards[pos + 7];
-                        }
-                        if (((startingBitBoards[pos] & RIGHT_MASK) == 0)) { // not on right side
-                            potentialAttacks[piece] |= startingBitBoards[pos + 9];
-                        }
-                    }
-                    break;
-            }
+        // a piece on pos could attack each opponent piece of the same type that attacks pos
+        if ((kingAttackMasks[pos] & opponentBitBoardList[0]) != 0) return true;
+        if ((knightAttackMasks[pos] & opponentBitBoardList[4]) != 0) return true;
+        long rookAttackers = opponentBitBoardList[1] | opponentBitBoardList[2];
+        if (rookAttackers != 0 && (precompute.getSlidingMagicAttack(pos, blockerBitBoard, 2) & rookAttackers) != 0) {
+            return true;
         }
-        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
-        for (int piece = 0; piece < 6; piece++) {
-            // check if each piece is on the attack directions to pos
-            if ((opponentBitBoardList[piece] & potentialAttacks[piece]) != 0) { // piece attacking that square
-                return true;
+        long bishopAttackers = opponentBitBoardList[1] | opponentBitBoardList[3];
+        if (bishopAttackers != 0 && (precompute.getSlidingMagicAttack(pos, blockerBitBoard, 3) & bishopAttackers) != 0) {
+            return true;
+        }
+
+        long pawnAttacks = 0;
+        if (isWhiteTurn && ((startingBitBoards[pos] & TOP_MASK) == 0)) { // not on top row
+            if ((startingBitBoards[pos] & LEFT_MASK) == 0) { // not on left side
+                pawnAttacks |= startingBitBoards[pos-9];
+            }
+            if ((startingBitBoards[pos] & RIGHT_MASK) == 0) { // not on right side
+                pawnAttacks |= startingBitBoards[pos-7];
+            }
+        } else if (!isWhiteTurn && (((startingBitBoards[pos] & BOTTOM_MASK) == 0))) { // not on bottom row;
+            if (((startingBitBoards[pos] & LEFT_MASK) == 0)) { // not on left side
+                pawnAttacks |= startingBitBoards[pos + 7];
+            }
+            if (((startingBitBoards[pos] & RIGHT_MASK) == 0)) { // not on right side
+                pawnAttacks |= startingBitBoards[pos + 9];
             }
         }
-        return false;
+        return (pawnAttacks & opponentBitBoardList[5]) != 0;
     }
 
     // gets if king is currently in check (includes but doesn't distinguish mate)
@@ -249,27 +509,374 @@ public class ChessBoard {
         throw new IllegalArgumentException("No piece at Pos");
     }
 
-    private void filterLegalMoves(ArrayList<Move> moves) {
-        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
-        for (int i = moves.size() - 1; i >= 0; i--) {
-            Move move = moves.get(i);
-            makeMove(move);
-            switchTurn(); // because make move switches turn,
-            // but we want to check king check with respect to previous color
-            // check friendly after switch turn because eval same side
-            long[] friendlyBitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
-            long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
-            long friendlyBitBoard = orBitBoardArray(friendlyBitBoardList);
-            long opponentBitBoard = orBitBoardArray(opponentBitBoardList);
-            if (isKingInCheck(bitBoardList[0], friendlyBitBoard, opponentBitBoard)) { // legal
-                moves.remove(i);
-            }
-            switchTurn(); // switch turn back
-            undoLastMove();
+    // removes moves that leave the king in check, compacting the buffer in place
+    // returns the new move count
+    private int filterLegalMoves(int[] moves, int moveCount) {
+        int legalCount = 0;
+        for (int i = 0; i < moveCount; i++) {
+            int move = moves[i];
+            if (leavesKingSafe(move)) {
+                moves[legalCount++] = move;
+            }
         }
+        return legalCount;
     }
 
+    // makes the move and checks that it doesn't leave our own king in check
+    private boolean leavesKingSafe(int move) {
+        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        makeMove(move);
+        switchTurn(); // because make move switches turn,
+        // but we want to check king check with respect to previous color
+        // check friendly after switch turn because eval same side
+        long[] friendlyBitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
+        long friendlyBitBoard = orBitBoardArray(friendlyBitBoardList);
+        long opponentBitBoard = orBitBoardArray(opponentBitBoardList);
+        boolean isLegal = !isKingInCheck(bitBoardList[0], friendlyBitBoard, opponentBitBoard);
+        switchTurn(); // switch turn back
+        undoLastMove();
+        return isLegal;
+    }
+
+    // GUI facing version of generateLegalMoves
     public ArrayList<Move> getLegalPossibleMoves() {
+        int moveCount = generateLegalMoves(guiMoveBuffer);
+        ArrayList<Move> possibleMoves = new ArrayList<>(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            possibleMoves.add(MoveEncoding.decode(guiMoveBuffer[i], getCastleState()));
+        }
+        return possibleMoves;
+    }
+
+    // reference generator: pseudo legal moves filtered with make/undo
+    // slower than generateLegalMoves, kept so tests can cross check the two
+    int generateLegalMovesByFiltering(int[] moves) {
+        int moveCount = generatePseudoLegalMoves(moves);
+        return filterLegalMoves(moves, moveCount);
+    }
+
+    // white pawns attack up left (<< 9) and up right (<< 7), black down left (>>> 7) and down right (>>> 9)
+    private static long getWhitePawnAttacks(long pawns) {
+        return ((pawns & ~LEFT_MASK) << 9) | ((pawns & ~RIGHT_MASK) << 7);
+    }
+
+    private static long getBlackPawnAttacks(long pawns) {
+        return ((pawns & ~LEFT_MASK) >>> 7) | ((pawns & ~RIGHT_MASK) >>> 9);
+    }
+
+    // opponent pieces (of the side not to move) attacking pos with the given occupancy
+    private long getAttackersOf(int pos, long occupied) {
+        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
+        long posBitBoard = startingBitBoards[pos];
+        // a pawn of ours on pos would attack exactly the squares of opponent pawns attacking pos
+        long pawnAttackers = (isWhiteTurn ? getWhitePawnAttacks(posBitBoard) : getBlackPawnAttacks(posBitBoard))
+                & opponentBitBoardList[5];
+        return pawnAttackers
+                | (kingAttackMasks[pos] & opponentBitBoardList[0])
+                | (knightAttackMasks[pos] & opponentBitBoardList[4])
+                | (precompute.getSlidingMagicAttack(pos, occupied, 2) & (opponentBitBoardList[1] | opponentBitBoardList[2]))
+                | (precompute.getSlidingMagicAttack(pos, occupied, 3) & (opponentBitBoardList[1] | opponentBitBoardList[3]));
+    }
+
+    // writes the legal moves of the current position into moves (length >= MAX_MOVES)
+    // and returns how many were written
+    // checkers and pinned pieces are found once up front so every move emitted is legal
+    // without having to make it
+    public int generateLegalMoves(int[] moves) {
+        return generateLegalMoves(moves, GENERATE_ALL);
+    }
+
+    // only the legal captures and queen promotions, for quiescence search
+    public int generateLegalCaptures(int[] moves) {
+        return generateLegalMoves(moves, GENERATE_CAPTURES);
+    }
+
+    // every legal move generateLegalCaptures leaves out (quiet moves, castles and underpromotions),
+    // together the two give the full move list
+    public int generateLegalQuiets(int[] moves) {
+        return generateLegalMoves(moves, GENERATE_QUIETS);
+    }
+
+    // returns the full encoding of a compact move (source, target, promotion) if it is legal
+    // in this position, NO_MOVE otherwise
+    // lets the search try a hash or killer move before generating anything
+    public int toLegalMove(int compactMove) {
+        if (compactMove == MoveEncoding.NO_MOVE) return MoveEncoding.NO_MOVE;
+        int source = MoveEncoding.getSource(compactMove);
+        int target = MoveEncoding.getTarget(compactMove);
+        int promotionPiece = MoveEncoding.getPromotionPiece(compactMove);
+        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        long friendlyBitBoard = orBitBoardArray(bitBoardList);
+        long opposingBitBoard = orBitBoardArray(isWhiteTurn ? blackBitBoards : whiteBitBoards);
+        long blockerBitBoard = friendlyBitBoard | opposingBitBoard;
+        long targetBitBoard = startingBitBoards[target];
+        if ((startingBitBoards[source] & friendlyBitBoard) == 0 || (targetBitBoard & friendlyBitBoard) != 0) {
+            return MoveEncoding.NO_MOVE;
+        }
+        int piece = findPieceAtPos(source, isWhiteTurn);
+        int capturedPiece = (targetBitBoard & opposingBitBoard) != 0 ? findPieceAtPos(target, !isWhiteTurn) : -1;
+        if (capturedPiece == 0 || (promotionPiece != 0 && piece != 5) || promotionPiece > 4) {
+            return MoveEncoding.NO_MOVE;
+        }
+
+        int move;
+        if (piece == 5) {
+            int pushDirection = isWhiteTurn ? -8 : 8;
+            long promotionRank = isWhiteTurn ? TOP_MASK : BOTTOM_MASK;
+            long doublePushRank = isWhiteTurn ? BOTTOM_MASK << 8 : TOP_MASK >>> 8;
+            long attacks = isWhiteTurn ? getWhitePawnAttacks(startingBitBoards[source])
+                    : getBlackPawnAttacks(startingBitBoards[source]);
+            if (((targetBitBoard & promotionRank) != 0) != (promotionPiece != 0)) {
+                return MoveEncoding.NO_MOVE; // promotes exactly when reaching the last rank
+            }
+            if (promotionPiece != 0 && ((capturedPiece != -1 && (attacks & targetBitBoard) != 0)
+                    || (capturedPiece == -1 && target == source + pushDirection))) {
+                move = MoveEncoding.encodePromotion(source, target, capturedPiece, promotionPiece);
+            } else if (capturedPiece != -1 && (attacks & targetBitBoard) != 0) {
+                move = MoveEncoding.encodeCapture(source, target, 5, capturedPiece);
+            } else if (capturedPiece == -1 && target == source + pushDirection) {
+                move = MoveEncoding.encodeQuiet(source, target, 5);
+            } else if (capturedPiece == -1 && target == source + 2 * pushDirection
+                    && (startingBitBoards[source] & doublePushRank) != 0
+                    && (startingBitBoards[source + pushDirection] & blockerBitBoard) == 0) {
+                move = MoveEncoding.encodeDoublePush(source, target);
+            } else if (enPassantPos != -1 && target == enPassantPos + pushDirection && (attacks & targetBitBoard) != 0) {
+                move = MoveEncoding.encodeEnPassant(source, target);
+            } else {
+                return MoveEncoding.NO_MOVE;
+            }
+        } else if (piece == 0 && Math.abs(target - source) == 2) {
+            // castling, compare against the castle moves generated for this position
+            if (isInCheck()) return MoveEncoding.NO_MOVE;
+            move = MoveEncoding.encodeCastle(source, target);
+            int castleCount = addCastleMoves(castleMoveBuffer, 0, blockerBitBoard, friendlyBitBoard, opposingBitBoard);
+            if (!(castleCount > 0 && castleMoveBuffer[0] == move) && !(castleCount > 1 && castleMoveBuffer[1] == move)) {
+                return MoveEncoding.NO_MOVE;
+            }
+            return move; // castle squares are already checked for attacks
+        } else {
+            long attacks = piece == 0 ? kingAttackMasks[source]
+                    : piece == 4 ? knightAttackMasks[source]
+                    : precompute.getSlidingMagicAttack(source, blockerBitBoard, piece);
+            if ((attacks & targetBitBoard) == 0) {
+                return MoveEncoding.NO_MOVE;
+            }
+            move = capturedPiece == -1 ? MoveEncoding.encodeQuiet(source, target, piece)
+                    : MoveEncoding.encodeCapture(source, target, piece, capturedPiece);
+        }
+        return leavesKingSafe(move) ? move : MoveEncoding.NO_MOVE;
+    }
+
+    // is the side to move in check
+    public boolean isInCheck() {
+        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        long blockerBitBoard = orBitBoardArray(whiteBitBoards) | orBitBoardArray(blackBitBoards);
+        return getAttackersOf(getPosOfLeastSigBit(bitBoardList[0]), blockerBitBoard) != 0;
+    }
+
+    private int generateLegalMoves(int[] moves, int stage) {
+        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
+        long friendlyBitBoard = orBitBoardArray(bitBoardList);
+        long opposingBitBoard = orBitBoardArray(opponentBitBoardList);
+        long blockerBitBoard = friendlyBitBoard | opposingBitBoard;
+        int kingPos = getPosOfLeastSigBit(bitBoardList[0]);
+        int moveCount = 0;
+
+        long checkers = getAttackersOf(kingPos, blockerBitBoard);
+        int checkerCount = Long.bitCount(checkers);
+
+        // KING MOVES
+        // the king itself is removed from the blockers so it can't hide behind itself from a slider
+        long kingTargets = kingAttackMasks[kingPos] & (stage == GENERATE_CAPTURES ? opposingBitBoard
+                : stage == GENERATE_QUIETS ? ~blockerBitBoard : ~friendlyBitBoard);
+        long blockersWithoutKing = blockerBitBoard ^ bitBoardList[0];
+        while (kingTargets != 0) {
+            int targetPos = getPosOfLeastSigBit(kingTargets);
+            if (getAttackersOf(targetPos, blockersWithoutKing) == 0) {
+                if ((startingBitBoards[targetPos] & opposingBitBoard) != 0) {
+                    moves[moveCount++] = MoveEncoding.encodeCapture(kingPos, targetPos, 0,
+                            findPieceAtPos(targetPos, !isWhiteTurn));
+                } else {
+                    moves[moveCount++] = MoveEncoding.encodeQuiet(kingPos, targetPos, 0);
+                }
+            }
+            kingTargets ^= startingBitBoards[targetPos];
+        }
+        if (checkerCount > 1) {
+            return moveCount; // double check, only the king can move
+        }
+
+        // squares other pieces may move to: anywhere, or if in check, capture the checker or block it
+        long targetMask = ~friendlyBitBoard;
+        if (checkerCount == 1) {
+            int checkerPos = getPosOfLeastSigBit(checkers);
+            targetMask = checkers | BETWEEN[kingPos][checkerPos];
+        } else if (stage != GENERATE_CAPTURES) {
+            moveCount = addCastleMoves(moves, moveCount, blockerBitBoard, friendlyBitBoard, opposingBitBoard);
+        }
+        long pieceTargetMask = stage == GENERATE_CAPTURES ? targetMask & opposingBitBoard
+                : stage == GENERATE_QUIETS ? targetMask & ~opposingBitBoard : targetMask;
+
+        // PINNED PIECES
+        // an opponent slider lined up with the king with exactly one of our pieces in between pins it,
+        // the pinned piece may only move along that line
+        long pinned = 0;
+        long pinners = (rookAttackMasks[kingPos] & (opponentBitBoardList[1] | opponentBitBoardList[2]))
+                | (bishopAttackMasks[kingPos] & (opponentBitBoardList[1] | opponentBitBoardList[3]));
+        while (pinners != 0) {
+            int pinnerPos = getPosOfLeastSigBit(pinners);
+            long between = BETWEEN[kingPos][pinnerPos] & blockerBitBoard;
+            if ((between & friendlyBitBoard) != 0 && Long.bitCount(between) == 1) {
+                pinned |= between;
+            }
+            pinners ^= startingBitBoards[pinnerPos];
+        }
+
+        // QUEEN, ROOK, BISHOP, KNIGHT
+        for (int piece = 1; piece <= 4; piece++) {
+            long pieceBitBoard = bitBoardList[piece];
+            while (pieceBitBoard != 0) {
+                int pos = getPosOfLeastSigBit(pieceBitBoard);
+                long moveMask = (piece == 4 ? knightAttackMasks[pos]
+                        : precompute.getSlidingMagicAttack(pos, blockerBitBoard, piece)) & pieceTargetMask;
+                if ((pinned & startingBitBoards[pos]) != 0) {
+                    moveMask &= LINE[kingPos][pos];
+                }
+                while (moveMask != 0) {
+                    int targetPos = getPosOfLeastSigBit(moveMask);
+                    if ((startingBitBoards[targetPos] & opposingBitBoard) != 0) {
+                        moves[moveCount++] = MoveEncoding.encodeCapture(pos, targetPos, piece,
+                                findPieceAtPos(targetPos, !isWhiteTurn));
+                    } else {
+                        moves[moveCount++] = MoveEncoding.encodeQuiet(pos, targetPos, piece);
+                    }
+                    moveMask ^= startingBitBoards[targetPos];
+                }
+                pieceBitBoard ^= startingBitBoards[pos];
+            }
+        }
+
+        // PAWNS
+        long pawnBitBoard = bitBoardList[5];
+        int pushDirection = isWhiteTurn ? -8 : 8;
+        long doublePushRank = isWhiteTurn ? BOTTOM_MASK << 8 : TOP_MASK >>> 8;
+        long promotionRank = isWhiteTurn ? TOP_MASK : BOTTOM_MASK;
+        while (pawnBitBoard != 0) {
+            int pos = getPosOfLeastSigBit(pawnBitBoard);
+            long posBitBoard = startingBitBoards[pos];
+            long pinMask = (pinned & posBitBoard) != 0 ? LINE[kingPos][pos] : ~0L;
+
+            // pushes
+            long pushMask = 0;
+            int singlePushPos = pos + pushDirection;
+            if ((startingBitBoards[singlePushPos] & blockerBitBoard) == 0) {
+                pushMask |= startingBitBoards[singlePushPos];
+                int doublePushPos = singlePushPos + pushDirection;
+                if ((posBitBoard & doublePushRank) != 0 && (startingBitBoards[doublePushPos] & blockerBitBoard) == 0) {
+                    pushMask |= startingBitBoards[doublePushPos];
+                }
+            }
+            long captureMask = (isWhiteTurn ? getWhitePawnAttacks(posBitBoard) : getBlackPawnAttacks(posBitBoard))
+                    & opposingBitBoard;
+            if (stage == GENERATE_CAPTURES) {
+                pushMask &= promotionRank; // pushes that promote still count
+            } else if (stage == GENERATE_QUIETS) {
+                captureMask &= promotionRank; // captures that underpromote
+            }
+            long moveMask = (pushMask | captureMask) & targetMask & pinMask;
+            while (moveMask != 0) {
+                int targetPos = getPosOfLeastSigBit(moveMask);
+                boolean isCaptureMove = (startingBitBoards[targetPos] & opposingBitBoard) != 0;
+                int capturedPiece = isCaptureMove ? findPieceAtPos(targetPos, !isWhiteTurn) : -1;
+                if ((startingBitBoards[targetPos] & promotionRank) != 0) {
+                    // pawn promotion, one move per promotion piece (queen, rook, bishop, knight)
+                    // captures only generation has the queen promotions, quiets the underpromotions
+                    int lastPromotionPiece = stage == GENERATE_CAPTURES ? 1 : 4;
+                    for (int promotionPiece = stage == GENERATE_QUIETS ? 2 : 1; promotionPiece <= lastPromotionPiece; promotionPiece++) {
+                        moves[moveCount++] = MoveEncoding.encodePromotion(pos, targetPos, capturedPiece, promotionPiece);
+                    }
+                } else if (isCaptureMove) {
+                    moves[moveCount++] = MoveEncoding.encodeCapture(pos, targetPos, 5, capturedPiece);
+                } else if (Math.abs(targetPos - pos) == 16) {
+                    moves[moveCount++] = MoveEncoding.encodeDoublePush(pos, targetPos);
+                } else {
+                    moves[moveCount++] = MoveEncoding.encodeQuiet(pos, targetPos, 5);
+                }
+                moveMask ^= startingBitBoards[targetPos];
+            }
+            pawnBitBoard ^= posBitBoard;
+        }
+
+        // EN PASSANT
+        if (enPassantPos != -1 && stage != GENERATE_QUIETS) {
+            int targetPos = enPassantPos + pushDirection;
+            long capturers = (isWhiteTurn ? getBlackPawnAttacks(startingBitBoards[targetPos])
+                    : getWhitePawnAttacks(startingBitBoards[targetPos])) & bitBoardList[5];
+            while (capturers != 0) {
+                int pos = getPosOfLeastSigBit(capturers);
+                if (isEnPassantLegal(pos, targetPos, kingPos, blockerBitBoard)) {
+                    moves[moveCount++] = MoveEncoding.encodeEnPassant(pos, targetPos);
+                }
+                capturers ^= startingBitBoards[pos];
+            }
+        }
+        return moveCount;
+    }
+
+    // enPassant removes two pawns from the same rank at once, which pin detection doesn't cover,
+    // so check directly whether the king is attacked after the capture
+    private boolean isEnPassantLegal(int source, int target, int kingPos, long blockerBitBoard) {
+        long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
+        long blockersAfter = (blockerBitBoard ^ startingBitBoards[source] ^ startingBitBoards[enPassantPos])
+                | startingBitBoards[target];
+        long opponentPawnsAfter = opponentBitBoardList[5] ^ startingBitBoards[enPassantPos];
+        long pawnAttackers = (isWhiteTurn ? getWhitePawnAttacks(startingBitBoards[kingPos])
+                : getBlackPawnAttacks(startingBitBoards[kingPos])) & opponentPawnsAfter;
+        return pawnAttackers == 0
+                && (kingAttackMasks[kingPos] & opponentBitBoardList[0]) == 0
+                && (knightAttackMasks[kingPos] & opponentBitBoardList[4]) == 0
+                && (precompute.getSlidingMagicAttack(kingPos, blockersAfter, 2)
+                        & (opponentBitBoardList[1] | opponentBitBoardList[2])) == 0
+                && (precompute.getSlidingMagicAttack(kingPos, blockersAfter, 3)
+                        & (opponentBitBoardList[1] | opponentBitBoardList[3])) == 0;
+    }
+
+    // castling is only generated when not in check, rights imply king and rook are on their squares
+    private int addCastleMoves(int[] moves, int moveCount, long blockerBitBoard, long friendlyBitBoard, long opposingBitBoard) {
+        if (isWhiteTurn) {
+            if ((castleRights & WHITE_RIGHT_CASTLE) != 0 &&
+                    ((blockerBitBoard & WHITE_RIGHT_CASTLE_MASK) == 0) &&
+                    !isSquareAttacked(61, friendlyBitBoard, opposingBitBoard) &&
+                    !isSquareAttacked(62, friendlyBitBoard, opposingBitBoard)) {
+                moves[moveCount++] = MoveEncoding.encodeCastle(60, 62);
+            }
+            if ((castleRights & WHITE_LEFT_CASTLE) != 0 &&
+                    ((blockerBitBoard & WHITE_LEFT_CASTLE_MASK) == 0) &&
+                    !isSquareAttacked(59, friendlyBitBoard, opposingBitBoard) &&
+                    !isSquareAttacked(58, friendlyBitBoard, opposingBitBoard)) {
+                moves[moveCount++] = MoveEncoding.encodeCastle(60, 58);
+            }
+        } else {
+            if ((castleRights & BLACK_RIGHT_CASTLE) != 0 &&
+                    ((blockerBitBoard & BLACK_RIGHT_CASTLE_MASK) == 0) &&
+                    !isSquareAttacked(5, friendlyBitBoard, opposingBitBoard) &&
+                    !isSquareAttacked(6, friendlyBitBoard, opposingBitBoard)) {
+                moves[moveCount++] = MoveEncoding.encodeCastle(4, 6);
+            }
+            if ((castleRights & BLACK_LEFT_CASTLE) != 0 &&
+                    ((blockerBitBoard & BLACK_LEFT_CASTLE_MASK) == 0) &&
+                    !isSquareAttacked(3, friendlyBitBoard, opposingBitBoard) &&
+                    !isSquareAttacked(2, friendlyBitBoard, opposingBitBoard)) {
+                moves[moveCount++] = MoveEncoding.encodeCastle(4, 2);
+            }
+        }
+        return moveCount;
+    }
+
+    // moves that follow piece movement rules but may leave the king in check
+    private int generatePseudoLegalMoves(int[] moves) {
         long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
 
         long opposingBitBoard = orBitBoardArray(
@@ -277,7 +884,7 @@ public class ChessBoard {
         long friendlyBitBoard = orBitBoardArray(bitBoardList);
         long blockerBitBoard = friendlyBitBoard | opposingBitBoard;
 
-        ArrayList<Move> possibleMoves = new ArrayList<>();
+        int moveCount = 0;
 
         for (int piece = 0; piece < bitBoardList.length; piece++) { // loop over each piece bitboard
             long pieceBitBoard = bitBoardList[piece]; // bitboard with just this piece (could be multiple pieces)
@@ -291,89 +898,52 @@ public class ChessBoard {
                 // add king castling
                 if (piece == 0) {
                     // check if white can right castle
-                    if (isWhiteTurn && castleState.whiteCanRightCastle &&
+                    if (isWhiteTurn && (castleRights & WHITE_RIGHT_CASTLE) != 0 &&
                             ((blockerBitBoard & WHITE_RIGHT_CASTLE_MASK) == 0) &&
                             !isSquareAttacked(60, friendlyBitBoard, opposingBitBoard) && // can't castle in check
                             !isSquareAttacked(61, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(62, friendlyBitBoard, opposingBitBoard)) {
-                        possibleMoves.add(
-                                new Move(60, 62,piece, false,
-                                        0, false, 0,
-                                        true, true, castleState.copy(),
-                                        false)
-                        );
+                        moves[moveCount++] = MoveEncoding.encodeCastle(60, 62);
                     }
                     // check if white can left castle
-                    if (isWhiteTurn && castleState.whiteCanLeftCastle &&
+                    if (isWhiteTurn && (castleRights & WHITE_LEFT_CASTLE) != 0 &&
                             ((blockerBitBoard & WHITE_LEFT_CASTLE_MASK) == 0) &&
                             !isSquareAttacked(60, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(59, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(58, friendlyBitBoard, opposingBitBoard)) {
-                        possibleMoves.add(
-                                new Move(60, 58, piece, false,
-                                        0, false, 0,
-                                        true, false, castleState.copy(),
-                                        false)
-                        );
+                        moves[moveCount++] = MoveEncoding.encodeCastle(60, 58);
                     }
                     // check if black can right castle
-                    if (!isWhiteTurn && castleState.blackCanRightCastle &&
+                    if (!isWhiteTurn && (castleRights & BLACK_RIGHT_CASTLE) != 0 &&
                             ((blockerBitBoard & BLACK_RIGHT_CASTLE_MASK) == 0) &&
                             !isSquareAttacked(4, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(5, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(6, friendlyBitBoard, opposingBitBoard)) {
-                        possibleMoves.add(
-                                new Move(4, 6,piece, false, 0,
-                                        false, 0,
-                                        true, true, castleState.copy(),
-                                        false)
-                        );
+                        moves[moveCount++] = MoveEncoding.encodeCastle(4, 6);
                     }
                     // check if black can left castle
-                    if (!isWhiteTurn && castleState.blackCanLeftCastle &&
+                    if (!isWhiteTurn && (castleRights & BLACK_LEFT_CASTLE) != 0 &&
                             ((blockerBitBoard & BLACK_LEFT_CASTLE_MASK) == 0) &&
                             !isSquareAttacked(4, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(3, friendlyBitBoard, opposingBitBoard) &&
                             !isSquareAttacked(2, friendlyBitBoard, opposingBitBoard)) {
-                        possibleMoves.add(
-                                new Move(4, 2,piece,
-                                        false, 0,
-                                        false, 0,
-                                        true, false, castleState.copy(),
-                                        false)
-                        );
+                        moves[moveCount++] = MoveEncoding.encodeCastle(4, 2);
                     }
                 }
 
                 // handle pawn enPassant ONLY
                 // adds additional enPassant moves
-                if (piece == 5) {
-                    if (!moveStack.isEmpty()) {
-                        Move prevMove = moveStack.peek();
-                        if (prevMove.piece == 5 &&
-                                (Math.abs(prevMove.source-prevMove.target) == 16)) { // if pawn and two square move
-                            if (((startingBitBoards[pos] & LEFT_SIDE_BOARD) == 0)) { // if pawn not on left edge
-                                // calculate left side enPassant
-                                if (pos-1 == prevMove.target) { // if prev move directly left of curr pawn pos
-                                    possibleMoves.add(
-                                            new Move(pos, isWhiteTurn ? pos-9 : pos + 7, 5,
-                                            true, 5,
-                                            false, 0,
-                                            false, true, castleState.copy(),
-                                            true));
-                                }
-                            }
-                            if (((startingBitBoards[pos] & RIGHT_SIDE_BOARD) == 0)) { // if pawn not on right edge
-                                // calculate right side enPassant
-                                if (pos+1 == prevMove.target) { // if prev move directly left of curr pawn pos
-                                    possibleMoves.add(
-                                            new Move(pos, isWhiteTurn ? pos-7 : pos + 9, 5,
-                                            true, 5,
-                                            false, 0,
-                                            false, true, castleState.copy(),
-                                            true));
-                                }
-                            }
+                if (piece == 5 && enPassantPos != -1) {
+                    if (((startingBitBoards[pos] & LEFT_SIDE_BOARD) == 0)) { // if pawn not on left edge
+                        // calculate left side enPassant
+                        if (pos-1 == enPassantPos) { // if prev move directly left of curr pawn pos
+                            moves[moveCount++] = MoveEncoding.encodeEnPassant(pos, isWhiteTurn ? pos-9 : pos + 7);
+                        }
+                    }
+                    if (((startingBitBoards[pos] & RIGHT_SIDE_BOARD) == 0)) { // if pawn not on right edge
+                        // calculate right side enPassant
+                        if (pos+1 == enPassantPos) { // if prev move directly right of curr pawn pos
+                            moves[moveCount++] = MoveEncoding.encodeEnPassant(pos, isWhiteTurn ? pos-7 : pos + 9);
                         }
                     }
                 }
@@ -384,52 +954,25 @@ public class ChessBoard {
 
                     // capture logic
                     boolean isCaptureMove = (startingBitBoards[targetPos] & opposingBitBoard) != 0;
-                    int capturedPiece = 0;
+                    int capturedPiece = -1;
                     if (isCaptureMove) { // if capturing a piece, find the piece we're capturing
                         capturedPiece = findPieceAtPos(targetPos, !isWhiteTurn); // if white turn, find black piece
                     }
 
-                    // pawn promotion logic to add promotion flag along with non queen promotions
-                    // capture flag even in the case of promotion is already handled in the above block
-                    boolean isPromotion = false;
-                    if (piece == 5) {
-                        if (isWhiteTurn && ((startingBitBoards[targetPos] & TOP_MASK) != 0)) { // white promotion
-                            for (int promotionPiece = 1; promotionPiece < 4; promotionPiece++) { // queen added by default
-                                possibleMoves.add(
-                                        new Move(pos, targetPos, piece,
-                                        isCaptureMove, capturedPiece,
-                                        true, promotionPiece,
-                                        false, true, castleState.copy(),
-                                        false)
-                                );
-                            }
-                            isPromotion = true;
+                    if (piece == 5 && (startingBitBoards[targetPos] & (TOP_MASK | BOTTOM_MASK)) != 0) {
+                        // pawn promotion, one move per promotion piece (queen, rook, bishop, knight)
+                        for (int promotionPiece = 1; promotionPiece <= 4; promotionPiece++) {
+                            moves[moveCount++] = MoveEncoding.encodePromotion(pos, targetPos, capturedPiece, promotionPiece);
                         }
-                        else if (!isWhiteTurn && ((startingBitBoards[targetPos] & BOTTOM_MASK) != 0)) { // black promotion
-                            for (int promotionPiece = 1; promotionPiece < 4; promotionPiece++) { // queen added by default
-                                possibleMoves.add(
-                                        new Move(pos, targetPos, piece,
-                                        isCaptureMove, capturedPiece,
-                                        true, promotionPiece,
-                                        false, true, castleState.copy(),
-                                        false));
-                            }
-                            isPromotion = true;
+                    } else if (isCaptureMove) {
+                        // king can't move into check functionality
+                        if (!(piece == 0 && isSquareAttacked(targetPos, friendlyBitBoard, opposingBitBoard))) {
+                            moves[moveCount++] = MoveEncoding.encodeCapture(pos, targetPos, piece, capturedPiece);
                         }
-                    }
-
-                    // king can't move into check functionality
-                    if (!(piece == 0 && isSquareAttacked(targetPos, friendlyBitBoard, opposingBitBoard)) &&
-                            !(piece == 5 && isCaptureMove && ((Math.abs(targetPos-pos) % 8) == 0))) { // pawn can't capture on same column
-
-                        // if promotion, queen added by default, block above adds rest
-                        possibleMoves.add(
-                                new Move(pos, targetPos, piece,
-                                isCaptureMove, capturedPiece,
-                                isPromotion, 0,
-                                false, true,
-                                castleState.copy(), false)
-                        );
+                    } else if (piece == 5 && Math.abs(targetPos - pos) == 16) {
+                        moves[moveCount++] = MoveEncoding.encodeDoublePush(pos, targetPos);
+                    } else if (!(piece == 0 && isSquareAttacked(targetPos, friendlyBitBoard, opposingBitBoard))) {
+                        moves[moveCount++] = MoveEncoding.encodeQuiet(pos, targetPos, piece);
                     }
                     moveMask ^= startingBitBoards[targetPos]; // remove this move from move mask
                     // cont: (the moves that we still have to convert and encode)
@@ -437,132 +980,277 @@ public class ChessBoard {
                 pieceBitBoard ^= startingBitBoards[pos]; // remove piece from bitboard and process next
             }
         }
-        filterLegalMoves(possibleMoves);
-        return possibleMoves;
+        return moveCount;
+    }
+
+    // plays a GUI facing move (see makeMove(int))
+    public void makeMove(Move move) {
+        makeMove(MoveEncoding.encode(move));
     }
 
     // plays move, updates bitboards, and switches turn
     // assumes valid move
-    // TODO: UNIT TESTS
-    public void makeMove(Move move) {
+    public void makeMove(int move) {
+        // save state for undo
+        if (ply == moveHistory.length) {
+            growHistory();
+        }
+        if (accumulator != null) {
+            accumulator.push();
+        }
+        moveHistory[ply] = move;
+        castleRightsHistory[ply] = castleRights;
+        enPassantHistory[ply] = enPassantPos;
+        zobristHistory[ply] = zobristKey;
+        pawnKeyHistory[ply] = pawnKey;
+        openingScoreHistory[ply] = openingScore;
+        endgameScoreHistory[ply] = endgameScore;
+        phaseMaterialHistory[ply] = phaseMaterial;
+        halfmoveClockHistory[ply] = halfmoveClock;
+        ply++;
 
+        // remove the castle and enPassant state that this move may change from the key
+        zobristKey ^= ZOBRIST_CASTLE_KEYS[castleRights];
+        if (enPassantPos != -1) {
+            zobristKey ^= ZOBRIST_EN_PASSANT_KEYS[enPassantPos % 8];
+        }
+        long[][] friendlyKeys = ZOBRIST_PIECE_KEYS[isWhiteTurn ? 0 : 1];
+        long[][] opponentKeys = ZOBRIST_PIECE_KEYS[isWhiteTurn ? 1 : 0];
+        int color = isWhiteTurn ? 0 : 1;
+
+        int source = MoveEncoding.getSource(move);
+        int target = MoveEncoding.getTarget(move);
+        int piece = MoveEncoding.getPiece(move);
 
         long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
         long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
-        // remove piece at source location
-        bitBoardList[move.piece] ^= startingBitBoards[move.source];
-        // add at new target location
-        bitBoardList[move.piece] |= startingBitBoards[move.target];
-        // if capture move, update the capture bitboard in opponent bitboard
-        if (move.isCaptureMove && !move.isEnPassantMove) { // don't handle enPassant b/c target isn't loc of enemy pawn
-            opponentBitBoardList[move.pieceCaptured] ^= startingBitBoards[move.target]; // remove captured piece
-        }
-        if (move.isEnPassantMove) {
+        // move piece from source to target
+        bitBoardList[piece] ^= startingBitBoards[source] | startingBitBoards[target];
+        zobristKey ^= friendlyKeys[piece][source] ^ friendlyKeys[piece][target];
+        if (piece == 5) {
+            pawnKey ^= friendlyKeys[5][source] ^ friendlyKeys[5][target];
+        }
+        movePieceInEval(color, piece, source, target);
+        if (MoveEncoding.isEnPassant(move)) {
             // if white turn, enPassant pawn is below (+) if black, enPassant pawn is above
-            opponentBitBoardList[5] ^=
-                    startingBitBoards[isWhiteTurn ? move.target + 8 : move.target - 8];
+            int capturedPawnPos = isWhiteTurn ? target + 8 : target - 8;
+            opponentBitBoardList[5] ^= startingBitBoards[capturedPawnPos];
+            zobristKey ^= opponentKeys[5][capturedPawnPos];
+            pawnKey ^= opponentKeys[5][capturedPawnPos];
+            removePieceFromEval(1 - color, 5, capturedPawnPos);
+        } else if (MoveEncoding.isCapture(move)) { // remove the captured piece from the opponent
+            int capturedPiece = MoveEncoding.getCapturedPiece(move);
+            opponentBitBoardList[capturedPiece] ^= startingBitBoards[target];
+            zobristKey ^= opponentKeys[capturedPiece][target];
+            if (capturedPiece == 5) {
+                pawnKey ^= opponentKeys[5][target];
+            }
+            removePieceFromEval(1 - color, capturedPiece, target);
         }
         // if promotion, replace the pawn (that we already moved) with the promoted piece
-        if (move.isPromotionMove) {
-            bitBoardList[move.piece] ^= startingBitBoards[move.target]; // remove pawn
-            bitBoardList[move.promotionPiece] |= startingBitBoards[move.target]; // replace with promoted piece
+        if (MoveEncoding.isPromotion(move)) {
+            int promotionPiece = MoveEncoding.getPromotionPiece(move);
+            bitBoardList[piece] ^= startingBitBoards[target]; // remove pawn
+            bitBoardList[promotionPiece] |= startingBitBoards[target]; // replace with promoted piece
+            zobristKey ^= friendlyKeys[piece][target] ^ friendlyKeys[promotionPiece][target];
+            pawnKey ^= friendlyKeys[5][target];
+            removePieceFromEval(color, piece, target);
+            addPieceToEval(color, promotionPiece, target);
         }
         // if castleMove, move the rook since we already moved the king above
-        if (move.isCastleMove) {
-            if (move.rightCastleDirection) { // right castle
-                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 63 : 7];
-                bitBoardList[2] |= startingBitBoards[isWhiteTurn ? 61 : 5];
+        if (MoveEncoding.isCastle(move)) {
+            int rookSource;
+            int rookTarget;
+            if (target > source) { // right castle
+                rookSource = isWhiteTurn ? 63 : 7;
+                rookTarget = isWhiteTurn ? 61 : 5;
             } else { // left castle
-                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 56 : 0];
-                bitBoardList[2] |= startingBitBoards[isWhiteTurn ? 59 : 3];
-            }
-            // update the castle fields
-            if (isWhiteTurn) {
-                castleState.whiteCanLeftCastle = false;
-                castleState.whiteCanRightCastle = false;
-            } else { // black
-                castleState.blackCanLeftCastle = false;
-                castleState.blackCanRightCastle = false;
-            }
-        }
-
-        // if move isn't a castle but could affect castle state
-        // (if you move the king or rook)
-        if ((move.piece == 0 || move.piece == 2) && !move.isCastleMove) {
-            switch (move.piece) {
-                case 0: // king
-                    if (isWhiteTurn) { // if king moves, castle not valid
-                        castleState.whiteCanLeftCastle = false;
-                        castleState.whiteCanRightCastle = false;
-                    } else {
-                        castleState.blackCanLeftCastle = false;
-                        castleState.blackCanRightCastle = false;
-                    }
-                    break;
-                case 2: // rook
-                    if (isWhiteTurn) {
-                        if (move.source == 63) { // white right rook
-                            castleState.whiteCanRightCastle = false;
-                        } else if (move.source == 56) { // white left rook
-                            castleState.whiteCanLeftCastle = false;
-                        }
-                    } else { // black turn
-                        if (move.source == 7) { // black right rook
-                            castleState.blackCanRightCastle = false;
-                        } else if (move.source == 0) { // black left rook
-                            castleState.blackCanLeftCastle = false;
-                        }
-                    }
-                    break;
+                rookSource = isWhiteTurn ? 56 : 0;
+                rookTarget = isWhiteTurn ? 59 : 3;
             }
+            bitBoardList[2] ^= startingBitBoards[rookSource] | startingBitBoards[rookTarget];
+            zobristKey ^= friendlyKeys[2][rookSource] ^ friendlyKeys[2][rookTarget];
+            movePieceInEval(color, 2, rookSource, rookTarget);
         }
 
-        // add move to moveStack
-        moveStack.add(move);
+        // moving the king or a rook (or capturing a rook) on its starting square removes that castle
+        castleRights &= CASTLE_RIGHTS_AFTER_TOUCHING[source] & CASTLE_RIGHTS_AFTER_TOUCHING[target];
+        enPassantPos = MoveEncoding.isDoublePush(move) ? target : -1;
+        // captures and pawn moves can't be undone, no earlier position can repeat after them
+        halfmoveClock = piece == 5 || MoveEncoding.isCapture(move) ? 0 : halfmoveClock + 1;
+
+        // add back the new castle and enPassant state
+        zobristKey ^= ZOBRIST_CASTLE_KEYS[castleRights];
+        if (enPassantPos != -1) {
+            zobristKey ^= ZOBRIST_EN_PASSANT_KEYS[enPassantPos % 8];
+        }
+        zobristKey ^= ZOBRIST_BLACK_TO_MOVE_KEY;
 
         // switch turn
         switchTurn();
     }
 
+    // passes the turn without moving, for null move pruning in the search
+    // the enPassant square is cleared (the capture was the opponent's to make), undo with undoNullMove
+    public void makeNullMove() {
+        if (ply == moveHistory.length) {
+            growHistory();
+        }
+        moveHistory[ply] = MoveEncoding.NO_MOVE;
+        castleRightsHistory[ply] = castleRights;
+        enPassantHistory[ply] = enPassantPos;
+        zobristHistory[ply] = zobristKey;
+        pawnKeyHistory[ply] = pawnKey;
+        openingScoreHistory[ply] = openingScore;
+        endgameScoreHistory[ply] = endgameScore;
+        phaseMaterialHistory[ply] = phaseMaterial;
+        halfmoveClockHistory[ply] = halfmoveClock;
+        ply++;
+        halfmoveClock = 0; // a repetition across a null move isn't a real one
+
+        if (enPassantPos != -1) {
+            zobristKey ^= ZOBRIST_EN_PASSANT_KEYS[enPassantPos % 8];
+            enPassantPos = -1;
+        }
+        zobristKey ^= ZOBRIST_BLACK_TO_MOVE_KEY;
+        switchTurn();
+    }
+
+    public void undoNullMove() {
+        ply--;
+        switchTurn();
+        enPassantPos = enPassantHistory[ply];
+        zobristKey = zobristHistory[ply];
+        halfmoveClock = halfmoveClockHistory[ply];
+    }
+
+    // does the side to move have anything besides king and pawns, positions without are the
+    // zugzwang prone ones where passing the turn would be the best move
+    public boolean hasNonPawnMaterial() {
+        long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
+        return (bitBoardList[1] | bitBoardList[2] | bitBoardList[3] | bitBoardList[4]) != 0;
+    }
+
     public void undoLastMove() {
-        Move move = moveStack.pop();
+        ply--;
+        int move = moveHistory[ply];
         switchTurn(); // switch turn first
 
+        int source = MoveEncoding.getSource(move);
+        int target = MoveEncoding.getTarget(move);
+        int piece = MoveEncoding.getPiece(move);
+
         long[] bitBoardList = isWhiteTurn ? whiteBitBoards : blackBitBoards;
         long[] opponentBitBoardList = isWhiteTurn ? blackBitBoards : whiteBitBoards;
         // if promotion, remove promoted piece from target
-        if (move.isPromotionMove) {
-            bitBoardList[move.promotionPiece] ^= startingBitBoards[move.target];
+        if (MoveEncoding.isPromotion(move)) {
+            bitBoardList[MoveEncoding.getPromotionPiece(move)] ^= startingBitBoards[target];
         } else { // otherwise
             // remove piece from target
-            bitBoardList[move.piece] ^= startingBitBoards[move.target];
+            bitBoardList[piece] ^= startingBitBoards[target];
         }
         // add it back to the original place
-        bitBoardList[move.piece] |= startingBitBoards[move.source];
-        // if captured, add the enemy piece back to its spot
-        if (move.isCaptureMove && !move.isEnPassantMove) { // don't consider enPassant, handle replace below in the enPassant block
-            opponentBitBoardList[move.pieceCaptured] |= startingBitBoards[move.target];
-        }
-        // put the captured pawn back, already moved capturing pawn back
-        if (move.isEnPassantMove) {
+        bitBoardList[piece] |= startingBitBoards[source];
+        if (MoveEncoding.isEnPassant(move)) {
+            // put the captured pawn back, already moved capturing pawn back
             // if white turn, enPassant pawn is below (+) if black, enPassant pawn is above
-            opponentBitBoardList[5] |= startingBitBoards[isWhiteTurn ? move.target + 8 : move.target - 8];
+            opponentBitBoardList[5] |= startingBitBoards[isWhiteTurn ? target + 8 : target - 8];
+        } else if (MoveEncoding.isCapture(move)) { // add the enemy piece back to its spot
+            opponentBitBoardList[MoveEncoding.getCapturedPiece(move)] |= startingBitBoards[target];
         }
 
-        // if castle, move rook back and fix castle fields
-        if (move.isCastleMove) {
-            if (move.rightCastleDirection) { // right castle
-                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 61 : 5];
-                bitBoardList[2] |= startingBitBoards[isWhiteTurn ? 63 : 7];
+        // if castle, move rook back
+        if (MoveEncoding.isCastle(move)) {
+            if (target > source) { // right castle
+                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 61 : 5] | startingBitBoards[isWhiteTurn ? 63 : 7];
             } else { // left castle
-                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 59 : 3];
-                bitBoardList[2] |= startingBitBoards[isWhiteTurn ? 56 : 0];
+                bitBoardList[2] ^= startingBitBoards[isWhiteTurn ? 59 : 3] | startingBitBoards[isWhiteTurn ? 56 : 0];
             }
+        }
+        castleRights = castleRightsHistory[ply];
+        enPassantPos = enPassantHistory[ply];
+        zobristKey = zobristHistory[ply];
+        pawnKey = pawnKeyHistory[ply];
+        if (accumulator != null) {
+            accumulator.pop();
+        }
+        openingScore = openingScoreHistory[ply];
+        endgameScore = endgameScoreHistory[ply];
+        phaseMaterial = phaseMaterialHistory[ply];
+        halfmoveClock = halfmoveClockHistory[ply];
+    }
+
+    private void addPieceToEval(int color, int piece, int pos) {
+        openingScore += OPENING_VALUES[color][piece][pos];
+        endgameScore += ENDGAME_VALUES[color][piece][pos];
+        phaseMaterial += PHASE_VALUES[color][piece];
+        if (accumulator != null) {
+            accumulator.addPiece(color, piece, pos);
+        }
+    }
 
+    private void removePieceFromEval(int color, int piece, int pos) {
+        openingScore -= OPENING_VALUES[color][piece][pos];
+        endgameScore -= ENDGAME_VALUES[color][piece][pos];
+        phaseMaterial -= PHASE_VALUES[color][piece];
+        if (accumulator != null) {
+            accumulator.removePiece(color, piece, pos);
         }
-        // fix the castle fields (regardless of if castle move
-        // since could be rook or king move that changed it last move)
-        castleState = move.castleState.copy();
+    }
+
+    private void movePieceInEval(int color, int piece, int source, int target) {
+        openingScore += OPENING_VALUES[color][piece][target] - OPENING_VALUES[color][piece][source];
+        endgameScore += ENDGAME_VALUES[color][piece][target] - ENDGAME_VALUES[color][piece][source];
+        if (accumulator != null) {
+            accumulator.movePiece(color, piece, source, target);
+        }
+    }
+
+    // recomputes the eval terms from scratch, used when the position is set up
+    private void computeEval() {
+        if (accumulator != null) {
+            accumulator.invalidate(); // summed from scratch when it is next read
+        }
+        openingScore = 0;
+        endgameScore = 0;
+        phaseMaterial = 0;
+        for (int piece = 0; piece < 6; piece++) {
+            for (int color = 0; color < 2; color++) {
+                long pieceMask = color == 0 ? whiteBitBoards[piece] : blackBitBoards[piece];
+                while (pieceMask != 0) {
+                    int pos = getPosOfLeastSigBit(pieceMask);
+                    addPieceToEval(color, piece, pos);
+                    pieceMask ^= startingBitBoards[pos];
+                }
+            }
+        }
+    }
+
+    // + good for white, see EvalTables.taper
+    public int getOpeningScore() {
+        return openingScore;
+    }
+
+    public int getEndgameScore() {
+        return endgameScore;
+    }
+
+    // opening material of the queens, rooks, bishops and knights on the board
+    public int getPhaseMaterial() {
+        return phaseMaterial;
+    }
+
+    private void growHistory() {
+        int newLength = moveHistory.length * 2;
+        moveHistory = Arrays.copyOf(moveHistory, newLength);
+        castleRightsHistory = Arrays.copyOf(castleRightsHistory, newLength);
+        enPassantHistory = Arrays.copyOf(enPassantHistory, newLength);
+        zobristHistory = Arrays.copyOf(zobristHistory, newLength);
+        pawnKeyHistory = Arrays.copyOf(pawnKeyHistory, newLength);
+        openingScoreHistory = Arrays.copyOf(openingScoreHistory, newLength);
+        endgameScoreHistory = Arrays.copyOf(endgameScoreHistory, newLength);
+        phaseMaterialHistory = Arrays.copyOf(phaseMaterialHistory, newLength);
+        halfmoveClockHistory = Arrays.copyOf(halfmoveClockHistory, newLength);
     }
 
     public void reset() {
@@ -582,7 +1270,8 @@ public class ChessBoard {
         final long blackPawnBoard = 0xFF000000000000L;
 
         // CASTLING DEFAULTS
-        castleState = new CastleState();
+        castleRights = ALL_CASTLE_RIGHTS;
+        enPassantPos = -1;
 
         whiteBitBoards = new long[]{
                 whiteKingBoard,
@@ -602,7 +1291,204 @@ public class ChessBoard {
                 blackPawnBoard
         };
         isWhiteTurn = true;
-        moveStack = new Stack<Move>();
+        ply = 0;
+        halfmoveClock = 0;
+        startingGamePly = 0;
+        zobristKey = computeZobristKey();
+        pawnKey = computePawnKey();
+        computeEval();
+    }
+
+    // sets up a position with only these pieces, no castle rights, no en passant and empty history
+    // (the tablebase generator goes through millions of these, a FEN string each would be slow)
+    public void setPieces(long[] whitePieces, long[] blackPieces, boolean whiteToMove) {
+        System.arraycopy(whitePieces, 0, whiteBitBoards, 0, 6);
+        System.arraycopy(blackPieces, 0, blackBitBoards, 0, 6);
+        isWhiteTurn = whiteToMove;
+        castleRights = 0;
+        enPassantPos = -1;
+        halfmoveClock = 0;
+        startingGamePly = 0;
+        ply = 0;
+        zobristKey = computeZobristKey();
+        pawnKey = computePawnKey();
+        computeEval();
+    }
+
+    // sets up the position from a FEN string
+    // (piece placement, side to move, castling, enPassant square, the move counters are optional)
+    public void loadFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        Arrays.fill(whiteBitBoards, 0);
+        Arrays.fill(blackBitBoards, 0);
+        String pieceSymbols = "kqrbnp";
+        int pos = 0;
+        for (char symbol : fields[0].toCharArray()) {
+            if (symbol == '/') {
+                continue;
+            }
+            if (Character.isDigit(symbol)) {
+                pos += symbol - '0';
+                continue;
+            }
+            int piece = pieceSymbols.indexOf(Character.toLowerCase(symbol));
+            if (piece == -1 || pos >= 64) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+            if (Character.isUpperCase(symbol)) {
+                whiteBitBoards[piece] |= startingBitBoards[pos];
+            } else {
+                blackBitBoards[piece] |= startingBitBoards[pos];
+            }
+            pos++;
+        }
+        if (pos != 64 || Long.bitCount(whiteBitBoards[0]) != 1 || Long.bitCount(blackBitBoards[0]) != 1) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+
+        if (!fields[1].equals("w") && !fields[1].equals("b")) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        isWhiteTurn = fields[1].equals("w");
+
+        if (!fields[2].matches("-|[KQkq]+")) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        castleRights = 0;
+        if (fields[2].indexOf('K') != -1) castleRights |= WHITE_RIGHT_CASTLE;
+        if (fields[2].indexOf('Q') != -1) castleRights |= WHITE_LEFT_CASTLE;
+        if (fields[2].indexOf('k') != -1) castleRights |= BLACK_RIGHT_CASTLE;
+        if (fields[2].indexOf('q') != -1) castleRights |= BLACK_LEFT_CASTLE;
+        // every right needs its king and rook still on their starting squares
+        long castlePieces = (whiteBitBoards[0] & startingBitBoards[60]) | (blackBitBoards[0] & startingBitBoards[4])
+                | (whiteBitBoards[2] & (startingBitBoards[56] | startingBitBoards[63]))
+                | (blackBitBoards[2] & (startingBitBoards[0] | startingBitBoards[7]));
+        for (int square : new int[]{0, 4, 7, 56, 60, 63}) {
+            if ((castlePieces & startingBitBoards[square]) == 0 && (castleRights & ~CASTLE_RIGHTS_AFTER_TOUCHING[square]) != 0) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+        }
+
+        // FEN gives the square behind the pawn, we store the pawn itself
+        // the square is on rank 6 (rank 3 with black to move) with an enemy pawn in front of it
+        enPassantPos = -1;
+        if (!fields[3].equals("-")) {
+            int enPassantSquare = squareFromName(fields[3]);
+            enPassantPos = isWhiteTurn ? enPassantSquare + 8 : enPassantSquare - 8;
+            long enemyPawns = isWhiteTurn ? blackBitBoards[5] : whiteBitBoards[5];
+            if (enPassantSquare / 8 != (isWhiteTurn ? 2 : 5) || (enemyPawns & startingBitBoards[enPassantPos]) == 0) {
+                throw new IllegalArgumentException("Invalid FEN: " + fen);
+            }
+        }
+
+        try {
+            halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+            int fullmoveNumber = fields.length > 5 ? Math.max(1, Integer.parseInt(fields[5])) : 1;
+            startingGamePly = (fullmoveNumber - 1) * 2 + (isWhiteTurn ? 0 : 1);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+
+        ply = 0;
+        zobristKey = computeZobristKey();
+        pawnKey = computePawnKey();
+        computeEval();
+    }
+
+    // the position as a FEN string, loadFen(toFen()) gives back the same position
+    public String toFen() {
+        StringBuilder fen = new StringBuilder();
+        char[][] boardArray = getBoardArray();
+        for (int row = 0; row < 8; row++) {
+            int emptySquares = 0;
+            for (int col = 0; col < 8; col++) {
+                char symbol = boardArray[row][col];
+                if (symbol == EMPTY_SQUARE) {
+                    emptySquares++;
+                    continue;
+                }
+                if (emptySquares > 0) {
+                    fen.append(emptySquares);
+                    emptySquares = 0;
+                }
+                fen.append(symbol);
+            }
+            if (emptySquares > 0) {
+                fen.append(emptySquares);
+            }
+            if (row < 7) {
+                fen.append('/');
+            }
+        }
+
+        fen.append(isWhiteTurn ? " w " : " b ");
+        if (castleRights == 0) fen.append('-');
+        if ((castleRights & WHITE_RIGHT_CASTLE) != 0) fen.append('K');
+        if ((castleRights & WHITE_LEFT_CASTLE) != 0) fen.append('Q');
+        if ((castleRights & BLACK_RIGHT_CASTLE) != 0) fen.append('k');
+        if ((castleRights & BLACK_LEFT_CASTLE) != 0) fen.append('q');
+
+        // FEN gives the square behind the pawn, we store the pawn itself
+        fen.append(' ');
+        if (enPassantPos == -1) {
+            fen.append('-');
+        } else {
+            fen.append(MoveEncoding.squareName(isWhiteTurn ? enPassantPos - 8 : enPassantPos + 8));
+        }
+
+        fen.append(' ').append(halfmoveClock).append(' ').append(getFullmoveNumber());
+        return fen.toString();
+    }
+
+    // "e4" -> pos (indexed top left, a8 = 0)
+    public static int squareFromName(String name) {
+        if (name.length() != 2) {
+            throw new IllegalArgumentException("Invalid square: " + name);
+        }
+        int file = name.charAt(0) - 'a';
+        int rank = name.charAt(1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            throw new IllegalArgumentException("Invalid square: " + name);
+        }
+        return (7 - rank) * 8 + file;
+    }
+
+    // PERFT
+    // counts the leaf nodes of the legal move tree to the given depth, used to validate move generation
+    public long perft(int depth) {
+        if (depth <= 0) return 1;
+        return perft(depth, new int[depth][MAX_MOVES]);
+    }
+
+    private long perft(int depth, int[][] moveBuffers) {
+        int[] moves = moveBuffers[depth - 1];
+        int moveCount = generateLegalMoves(moves);
+        if (depth == 1) {
+            return moveCount; // bulk count the last ply
+        }
+        long nodes = 0;
+        for (int i = 0; i < moveCount; i++) {
+            makeMove(moves[i]);
+            nodes += perft(depth - 1, moveBuffers);
+            undoLastMove();
+        }
+        return nodes;
+    }
+
+    // perft split by root move (e2e4 -> nodes), for finding which move a generation bug is under
+    public LinkedHashMap<String, Long> divide(int depth) {
+        LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+        int[] moves = new int[MAX_MOVES];
+        int moveCount = generateLegalMoves(moves);
+        for (int i = 0; i < moveCount; i++) {
+            makeMove(moves[i]);
+            result.put(MoveEncoding.toAlgebraic(moves[i]), perft(depth - 1));
+            undoLastMove();
+        }
+        return result;
     }
 
     // returns a printable string of the current board
@@ -1,174 +1,336 @@
 package engine;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import static engine.MoveGenerationPrecompute.*;
-import static engine.BitBoardFunctions.getPosOfLeastSigBit;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import static engine.EvalTables.*;
+import static engine.TranspositionTable.*;
+import static engine.MoveEncoding.NO_MOVE;
 
 public class ChessEngine {
 
 
     private static final int MAX = Integer.MAX_VALUE;
-    private static final int MIN = Integer.MIN_VALUE;
+    private static final int MIN = -MAX; // not Integer.MIN_VALUE so that negating a score can't overflow
     private static final int MAX_SEARCH_DEPTH = 6;
+    // scores past this are mate scores (MAX - depth), stored in the table relative to the node
+    static final int MATE_THRESHOLD = MAX - 1000;
+
+    // counted per thread, helper counts are added in when a search finishes
+    public long nodesSearched = 0;
+    public long pruneAmount = 0;
+    public long aspirationResearches = 0; // root searches repeated after falling outside the window
+    public int completedDepth = 0; // depth of the last fully searched iteration
+    public int completedScore = 0; // its score, from the side to move's point of view
+
+    // iterative deepening state
+    private static final int TIME_CHECK_INTERVAL = 2047; // nodes between clock reads, 2^n - 1
+    private int searchDepth;
+    private volatile long searchDeadline; // can be moved by ponderHit from another thread
+    private long searchNodeLimit;
+    private volatile boolean stopSearch; // set by the main thread to stop the helpers
+    private volatile boolean stopRequested; // set by stop(), from any thread
+    private long searchStartTime;
+    private long searchStartNodes;
+
+    // asynchronous searches (startSearch) run one at a time on this engine's own thread
+    private ExecutorService searchExecutor;
+    private volatile SearchListener searchListener;
+
+    // pondering: searching the position after the opponent's expected reply while they think
+    // guarded by this engine's lock since ponderHit comes from another thread
+    private boolean pondering; // waiting for the opponent's move
+    private boolean ponderSearchRunning; // the running search has no limits until ponderHit
+    private SearchLimits ponderLimits;
+    private long ponderCount; // tells a finished ponder search from the one started after it
+    // nodesSearched belongs to the search thread, so it sets the node limit once it sees the hit
+    private volatile boolean ponderHitPending;
+
+    // per ply move and move score buffers so the search doesn't allocate
+    private static final int MAX_PLY = 128;
+    private final int[][] moveBuffers = new int[MAX_PLY][ChessBoard.MAX_MOVES]; // quiescence only, the main search uses movePickers
+    private final int[][] moveScoreBuffers = new int[MAX_PLY][ChessBoard.MAX_MOVES];
+
+    // quiet move ordering learned during the search, per thread
+    private static final int HISTORY_LIMIT = 1 << 20;
+    private final int[][] killerMoves = new int[MAX_PLY][2]; // [ply][slot], quiet moves that caused a cutoff
+    private final int[][][] historyScores = new int[2][64][64]; // [white = 0, black = 1][source][target]
+    private final int[][] counterMoves = new int[64][64]; // [source][target] of the previous move -> reply (0, a8a8, is empty)
+    private final MovePicker[] movePickers = new MovePicker[MAX_PLY];
+
+    // triangular PV table, pvTable[ply][ply..pvLength[ply]) is the best line found from ply
+    // a node that raises alpha copies its child's line behind its own move, nothing is allocated
+    private final int[][] pvTable = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private int[] principalVariation = new int[0]; // line of the last completed iteration
+
+    // aspiration windows: later iterations start with a window around the previous score,
+    // a result outside it widens that side and searches again
+    private static final int ASPIRATION_WINDOW = 50;
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private boolean aspirationWindows = true;
+
+    // selectivity, both can be switched off to measure what they gain
+    // null move pruning: if passing the turn still fails high with a reduced search, so will a real move
+    // late move reductions: quiet moves ordered late are searched shallower first, in full only if they beat alpha
+    private boolean nullMovePruning = true;
+    private boolean lateMoveReductions = true;
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_MIN_MOVES = 3; // moves searched at full depth before reducing
+
+    // safety margin for delta pruning in quiescence search (about two pawns)
+    private static final int DELTA_MARGIN = 200;
+
+    // Transposition table, shared by every search this engine runs
+    private static final int DEFAULT_HASH_SIZE_MB = 64;
+    private TranspositionTable transpositionTable;
+
+    // static evaluation, helpers get their own from the factory since evaluators keep per thread state
+    private Supplier<? extends Evaluator> evaluatorFactory = ClassicalEvaluator::new;
+    private Evaluator evaluator = new ClassicalEvaluator();
+
+    // opening book, positions in it are answered without searching, null if none
+    private volatile PolyglotBook openingBook;
+    private final Random bookRandom = new Random();
+
+    // endgame tables, positions they cover are scored exactly instead of searched, null if none
+    private volatile Tablebase tablebase;
+
+    // Lazy SMP: helpers search copies of the root at staggered depths and only communicate
+    // through the shared transposition table, filling it with entries the main thread can cut on
+    private ChessEngine[] helpers = new ChessEngine[0];
 
-    public int nodesSearched = 0;
-    public int pruneAmount = 0;
-
-    private static final int OPENING_PHASE_THRESHOLD = 5900;
-    private static final int ENDGAME_PHASE_THRESHOLD = 500;
-    private static int MATERIAL_SCALING = 1;
-
-    //
-    private static final int[][] PIECE_SQUARE_TABLE = {
-            {-30, -40, -40, -50, -50, -40, -40, -30, // king
-                    -30, -37, -43, -49, -50, -39, -40, -30,
-                    -32, -41, -40, -46, -49, -40, -46, -30,
-                    -32, -38, -39, -52, -54, -39, -39, -30,
-                    -20, -33, -29, -42, -44, -29, -30, -19,
-                    -10, -18, -17, -20, -22, -21, -20, -13,
-                    -14,  -18,  -10,  -10,   -14,  -10,  15,  14,
-                    -21,  35,  -11,   6,   1,  -14,  32,  -22},
-            {-25,  -9, -11,  -3,  17, -13, -10, -17, // queen
-                    -4,  -6,   4,  -5,  -1,   6,   4,  -5,
-                    -8,  -5,   2,   0,   7,   6,  -4,  -5,
-                    0,  -4,   7,  -1,   7,  11,   0,   1,
-                    -6,   4,   7,   1,  -1,   2,  -6,  -2,
-                    -15,  11,  11,  11,   4,  11,   6, -15,
-                    -5,  -6,   1,  -6,   3,  -3,   3, -10,
-                    -15,  -4, -13,  10,  -3, -16,  -8, -24},
-            {5,  -2,   6,   2,  -2,  -6,   4,  -2, // rook
-                    8,  13,  11,  15,  11,  15,  16,   4,
-                    -6,   3,   3,   6,   1,  -2,   3,  -5,
-                    -10,   5,  -4,  -4,  -1,  -6,   3,  -2,
-                    -4,   3,   5,  -2,   4,   1,  -5,   1,
-                    0,   1,   1,  -3,   5,   6,   1,  -9,
-                    -10,  -1,  -4,   0,   5,  -6,  -6,  -9,
-                    -1,  -2,  -6,   9,   9,   5,   4,  -5,},
-            {-16, -15, -12,  -5, -10, -12, -10, -20, // bishop
-                    -13,   5,   6,   1,  -6,  -5,   3,  -6,
-                    -16,   6,  -1,  16,   7,  -1,  -6,  -5,
-                    -14,  -1,  11,  14,   4,  10,  11, -13,
-                    -4,   5,  12,  16,   4,   16,   2, -16,
-                    -15,   4,  14,   8,  14,   4,  16, -15,
-                    -5,   6,   6,   6,   3,   6,   9,  -7,
-                    -14,  -4, -15,  -4,  -9,  -14, -12, -14},
-            {-55, -40, -30, -28, -26, -30, -40, -50, // knight
-                    -37, -15, 0, -6, 4, 3, -17, -40,
-                    -25, 5, 16, 12, 11, 6, 6, -29,
-                    -24, 5, 21, 14, 18, 9, 11, -26,
-                    -36, -5, 9, 23, 24, 21, 2, -24,
-                    -32, -1, 15, 19, 20, 15, 11, -25,
-                    -38, -22, 4, -1, 8, -5, -18, -34,
-                    -50, -46, -32, -24, -36, -25, -46, -50},
-            {0, 0, 0, 0, 0, 0, 0, 0, // pawn
-            -4, 68, 61, 47, 47, 49, 45, -1,
-            6, 16, 25, 33, 24, 24, 14, -6,
-            0, -1, 9, 28, 20, 8, -1, 11,
-            6, 4, 6, 14, 14, -5, 6, -6,
-            -1, -8, -4, 4, 2, -12, -1, 5,
-            5, 16, 16, -14, -14, 13, 15, 8,
-            0, 0, 0, 0, 0, 0, 0, 0}
-    };
-    private static final int[][] PIECE_SQUARE_TABLE_ENDGAME = {
-            {-50, -40, -30, -20, -20, -30, -40, -50, // king
-            -30, -18, -15,   6,   3,  -6, -24, -30,
-            -35, -16,  20,  32,  34,  14, -11, -30,
-            -34,  -5,  24,  35,  34,  35, -16, -35,
-            -36,  -7,  31,  34,  34,  34, -12, -31,
-            -30,  -7,  14,  33,  36,  16, -13, -33,
-            -36, -27,   5,   2,   5,  -1, -31, -33,
-            -48, -26, -26, -26, -28, -25, -30, -51},
-            {-21,  -7,  -6,   1,  -8, -15, -10, -16, // queen
-            -4,  -5,   3,  -4,   2,   6,   3, -10,
-            -13,  -2,   7,   2,   6,  10,  -4,  -6,
-            -1,  -4,   3,   1,   8,   8,  -2,  -2,
-            0,   6,   8,   1,  -1,   1,   0,  -3,
-            -11,  10,   6,   3,   7,   9,   4, -10,
-            -12,  -6,   5,   0,   0,  -5,   4, -10,
-            -20,  -6,  -7,  -7,  -4, -12,  -9, -20},
-            {5,  -6,   1,  -4,  -4,  -6,   6,  -3, // rook
-            -6,   4,   2,   5,  -1,   3,   4, -15,
-            -15,   3,   3,   0,  -1,  -6,   5,  -9,
-            -16,   6,   0,  -6,  -3,  -3,  -4,  -4,
-            -15,   6,   2,  -6,   6,   0,  -6, -10,
-            -6,  -1,   3,  -2,   6,   5,   0, -15,
-            -8,  -4,   1,  -4,   3,  -5,  -6,  -5,
-            1,   0,  -2,   1,   1,   4,   2,   0},
-            {-14, -13,  -4,  -7, -14,  -9, -16, -20, // bishop
-            -11,   6,   3,  -6,   4,  -3,   5,  -4,
-            -11,  -3,   5,  15,   4,  -1,  -5, -10,
-            -7,  -1,  11,  16,   5,  11,   7, -13,
-            -4,   4,  10,  16,   6,  12,   4, -16,
-            -4,   4,  11,  12,  10,   7,   7, -12,
-            -11,   7,   6,   6,  -3,   2,   1,  -7,
-            -15,  -4, -11,  -4, -10, -10,  -6, -17},
-            {-50, -40, -30, -24, -24, -35, -40, -50, // knight
-            -38, -17,   6,  -5,   5,  -4, -15, -40,
-            -24,   3,  15,   9,  15,  10,  -6, -26,
-            -29,   5,  21,  17,  18,   9,  10, -28,
-            -36,  -5,  18,  16,  14,  20,   5, -26,
-            -32,   7,   5,  20,  11,  15,   9, -27,
-            -43, -20,   5,  -1,   5,   1, -22, -40,
-            -50, -40, -32, -27, -30, -25, -35, -50},
-            {0,   0,   0,   0,   0,   0,   0,   0, // pawn
-            -4, 174, 120,  94,  85,  98,  68,   4,
-            6,  48,  44,  45,  31,  38,  37,  -6,
-            -6,  -4,  -1,  -6,   2,  -1,  -2,  -2,
-            2,   2,   5,  -3,   0,  -5,   4,  -3,
-            -2,   0,   1,   5,   0,  -1,   0,   1,
-            -2,   5,   6,  -6,   0,   3,   4,  -4,
-            0,   0,   0,   0,   0,   0,   0,   0}
-    };
-    // Transposition table types
-    private static final int TT_EXACT = 0;
-    private static final int TT_ALPHA = 1;
-    private static final int TT_BETA  = 2;
-
-    // Transposition table entry
-    private static class TTEntry {
-        long key;
-        int depth;
-        int flag;
-        int score;
-        int bestMove;
-        TTEntry(long key, int depth, int flag, int score, int bestMove) {
-            this.key = key;
-            this.depth = depth;
-            this.flag = flag;
-            this.score = score;
-            this.bestMove = bestMove;
-        }
-    }
-
-    private static final int[][] WHITE_MATERIAL_WEIGHTS = {
-            {20001, 888, 488, 319, 308, 89}, // opening material
-            {19998, 853, 497, 331, 319, 96} // endgame material
-    };
-    private static final int[][] BLACK_MATERIAL_WEIGHTS = {
-            {20002, 888, 492, 323, 307, 92}, // opening material
-            {20000, 845, 501, 334, 318, 102} // endgame material
-    };
     public ChessEngine() {
+        this(DEFAULT_HASH_SIZE_MB);
+    }
+
+    public ChessEngine(int hashSizeMB) {
+        this(hashSizeMB, 1);
+    }
+
+    public ChessEngine(int hashSizeMB, int threadCount) {
         System.out.print("Initalizing AI...");
+        transpositionTable = new TranspositionTable(hashSizeMB);
+        createMovePickers();
+        setThreadCount(threadCount);
         System.out.println(" Done!");
     }
 
-    // game stage either 0 == opening, 1 = endgame (midGame is avg)
-    int getPieceMaterialScore(ChessBoard board) {
-        int materialScore = 0;
+    // helper engine for Lazy SMP, has its own buffers and counters but shares the table
+    private ChessEngine(TranspositionTable sharedTable) {
+        transpositionTable = sharedTable;
+        createMovePickers();
+    }
+
+    private void createMovePickers() {
+        for (int ply = 0; ply < MAX_PLY; ply++) {
+            movePickers[ply] = new MovePicker(this);
+        }
+    }
+
+    // number of threads used by getBestMove, the calling thread plus threadCount - 1 helpers
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("Thread count must be positive");
+        helpers = new ChessEngine[threadCount - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new ChessEngine(transpositionTable);
+            helpers[i].nullMovePruning = nullMovePruning;
+            helpers[i].lateMoveReductions = lateMoveReductions;
+            helpers[i].aspirationWindows = aspirationWindows;
+            helpers[i].tablebase = tablebase;
+            helpers[i].evaluator = evaluatorFactory.get();
+        }
+    }
+
+    public void setNullMovePruning(boolean enabled) {
+        nullMovePruning = enabled;
+        for (ChessEngine helper : helpers) {
+            helper.nullMovePruning = enabled;
+        }
+    }
+
+    // off searches every iteration with the full window, to check the windows against
+    public void setAspirationWindows(boolean enabled) {
+        aspirationWindows = enabled;
+        for (ChessEngine helper : helpers) {
+            helper.aspirationWindows = enabled;
+        }
+    }
+
+    public void setLateMoveReductions(boolean enabled) {
+        lateMoveReductions = enabled;
+        for (ChessEngine helper : helpers) {
+            helper.lateMoveReductions = enabled;
+        }
+    }
+
+    // factory is called once per search thread, ClassicalEvaluator::new is the default
+    public void setEvaluator(Supplier<? extends Evaluator> factory) {
+        evaluatorFactory = factory;
+        evaluator = factory.get();
+        for (ChessEngine helper : helpers) {
+            helper.evaluator = factory.get();
+        }
+    }
+
+    // the calling thread's evaluator
+    Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public int getThreadCount() {
+        return helpers.length + 1;
+    }
+
+    // null turns the book off, books can be shared by any number of engines
+    public void setOpeningBook(PolyglotBook book) {
+        openingBook = book;
+    }
+
+    // null turns the tables off, like books they can be shared
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+        for (ChessEngine helper : helpers) {
+            helper.tablebase = tablebase;
+        }
+    }
+
+    // progress of every following search goes to listener, null for none
+    public void setSearchListener(SearchListener listener) {
+        searchListener = listener;
+    }
+
+    public Future<Move> startSearch(ChessBoard board) {
+        return startSearch(board, SearchLimits.depth(MAX_SEARCH_DEPTH));
+    }
+
+    // starts a search of a copy of board on the engine's search thread and returns right away
+    // cancelling the returned future (with mayInterruptIfRunning) stops the search, the
+    // listener gets the move through searchFinished unless the search was cancelled
+    public Future<Move> startSearch(ChessBoard board, SearchLimits limits) {
+        ChessBoard searchBoard = new ChessBoard(board);
+        return submitSearch(() -> search(searchBoard, limits, false), null);
+    }
+
+    public Future<Move> startPonder(ChessBoard board, int expectedMove) {
+        return startPonder(board, expectedMove, SearchLimits.depth(MAX_SEARCH_DEPTH));
+    }
+
+    // starts searching the position after the opponent's expected reply (packed, usually the
+    // second move of the principal variation) while the opponent is still thinking
+    // the search ignores limits until ponderHit, and holds its move back until then
+    // if the opponent plays something else, cancel the returned future and start a normal search
+    public Future<Move> startPonder(ChessBoard board, int expectedMove, SearchLimits limits) {
+        ChessBoard ponderBoard = new ChessBoard(board);
+        ponderBoard.makeMove(expectedMove);
+        long ponderId;
+        synchronized (this) {
+            pondering = true;
+            ponderId = ++ponderCount;
+        }
+        return submitSearch(() -> {
+            Move bestMove = search(ponderBoard, limits, true);
+            waitForPonderHit();
+            return bestMove;
+        }, () -> endPonder(ponderId));
+    }
+
+    // the opponent played the expected move: the ponder search becomes the real search,
+    // its limits count from now on and the move it finds is delivered as usual
+    public synchronized void ponderHit() {
+        pondering = false;
+        if (ponderSearchRunning) {
+            ponderSearchRunning = false;
+            searchDeadline = getDeadline(ponderLimits);
+            ponderHitPending = true;
+        }
+        notifyAll();
+    }
+
+    // the ponder search is over (hit, cancelled or cancelled before it started), unless a newer
+    // one has started since, a ponderHit from now on has nothing to do
+    private synchronized void endPonder(long ponderId) {
+        if (ponderId == ponderCount) {
+            pondering = false;
+            ponderSearchRunning = false;
+            ponderHitPending = false;
+            notifyAll();
+        }
+    }
+
+    // true from startPonder until ponderHit or the end of the ponder search
+    synchronized boolean isPondering() {
+        return pondering;
+    }
+
+    // ends the running search, or the one startSearch just queued, as soon as its first iteration
+    // is done; unlike cancelling its future the move is still delivered
+    public void stop() {
+        stopRequested = true;
+    }
+
+    // onDone (or null) runs once the search is over or cancelled
+    private Future<Move> submitSearch(Callable<Move> search, Runnable onDone) {
+        stopRequested = false; // a stop() from before this search doesn't apply to it
+        FutureTask<Move> task = new FutureTask<>(search) {
+            // the listener hears about the move before get() returns it
+            @Override
+            protected void set(Move bestMove) {
+                try {
+                    SearchListener listener = searchListener;
+                    if (listener != null && !isCancelled()) {
+                        listener.searchFinished(bestMove);
+                    }
+                } finally {
+                    super.set(bestMove);
+                }
+            }
 
-        for (int piece = 1; piece <= 4; piece++) { // white
-            materialScore += Long.bitCount(board.whiteBitBoards[piece])
-                    * WHITE_MATERIAL_WEIGHTS[0][piece];
+            @Override
+            protected void done() {
+                if (onDone != null) {
+                    onDone.run();
+                }
+            }
+        };
+        synchronized (this) {
+            if (searchExecutor == null) {
+                searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "search");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
         }
-        for (int piece = 1; piece <= 4; piece++) { // black
-            materialScore += Long.bitCount(board.blackBitBoards[piece])
-                    * BLACK_MATERIAL_WEIGHTS[0][piece];
+        searchExecutor.execute(task);
+        return task;
+    }
+
+    // forget everything learned from previous searches (new game, benchmarks)
+    public void clearTranspositionTable() {
+        transpositionTable.clear();
+    }
+
+    // replaces the table with an empty one of sizeMB, the helpers switch with it
+    // only while no search is running, like setThreadCount
+    public void setHashSize(int sizeMB) {
+        transpositionTable = new TranspositionTable(sizeMB);
+        for (ChessEngine helper : helpers) {
+            helper.transpositionTable = transpositionTable;
         }
+    }
 
-        return materialScore;
+    int getHashEntryCount() {
+        return transpositionTable.getEntryCount();
     }
+
     // MVV-LVA scoring for captures
     // higher victimVal and lower attackerVal means a bigger score
     private int mvvLvaScore(int attackerPiece, int victimPiece) {
@@ -177,138 +339,539 @@ public class ChessEngine {
         return (victimVal * 100) - attackerVal;
     }
 
-    // score move
-    private int scoreMove(Move move, boolean isWhiteTurn) {
+    // mate scores are stored as distance from the node instead of from the root
+    private static int scoreToTransposition(int score, int depth) {
+        if (score > MATE_THRESHOLD) return score + depth;
+        if (score < -MATE_THRESHOLD) return score - depth;
+        return score;
+    }
+
+    private static int scoreFromTransposition(int score, int depth) {
+        if (score > MATE_THRESHOLD) return score - depth;
+        if (score < -MATE_THRESHOLD) return score + depth;
+        return score;
+    }
+
+    // score move, orders the moves within one MovePicker stage
+    // captures and promotions via MVV-LVA, quiet moves by history and where they land
+    int scoreMove(int move, boolean isWhiteTurn) {
         int score = 0;
-        if (move.isCastleMove) {
-            score += 10000;
-        }
+        int piece = MoveEncoding.getPiece(move);
+        int source = MoveEncoding.getSource(move);
+        int target = MoveEncoding.getTarget(move);
 
-        // captures via MVV-LVA
-        if (move.isCaptureMove) {
-            score += 50 * mvvLvaScore(move.piece, move.pieceCaptured);
-            // white material weights about same as black, don't need to check
-            if (BLACK_MATERIAL_WEIGHTS[0][move.pieceCaptured] < BLACK_MATERIAL_WEIGHTS[0][move.piece]) {
-                score -= 100;  //score -= 20000; // make sure don't capture piece
+        if (MoveEncoding.isTactical(move)) {
+            if (MoveEncoding.isCapture(move)) {
+                int capturedPiece = MoveEncoding.getCapturedPiece(move);
+                score += 50 * mvvLvaScore(piece, capturedPiece);
+                // white material weights about same as black, don't need to check
+                if (BLACK_MATERIAL_WEIGHTS[0][capturedPiece] < BLACK_MATERIAL_WEIGHTS[0][piece]) {
+                    score -= 100;  //score -= 20000; // make sure don't capture piece
+                }
             }
-
+            if (MoveEncoding.isPromotion(move)) {
+                score += 50 * mvvLvaScore(5, MoveEncoding.getPromotionPiece(move));
+            }
+            return score;
         }
 
+        if (MoveEncoding.isCastle(move)) {
+            score += 10000;
+        }
+        score += historyScores[isWhiteTurn ? 0 : 1][source][target];
         if (isWhiteTurn) {
-            score += 10 * PIECE_SQUARE_TABLE[move.piece][move.target];
+            score += 10 * PIECE_SQUARE_TABLE[piece][target];
         } else {
-            score += 10 * PIECE_SQUARE_TABLE[move.piece][63-move.target];
+            score += 10 * PIECE_SQUARE_TABLE[piece][63-target];
         }
         return score;
     }
 
-    // Sort moves using our improved heuristic
-    private void orderMoves(ArrayList<Move> moves, boolean isWhiteTurn) {
-        // precompute scores because scoreMove can be time-consuming
-        HashMap<Move, Integer> scores = new HashMap<>();
-        for (Move m : moves) {
-            scores.put(m, scoreMove(m, isWhiteTurn));
+    // a quiet move caused a beta cutoff: remember it as a killer for this ply, as the reply to the
+    // previous move, and raise its history score (more for cutoffs with more depth left)
+    void updateQuietMoveHeuristics(int move, boolean isWhiteTurn, int ply, int remainingDepth, int previousMove) {
+        if (killerMoves[ply][0] != move) {
+            killerMoves[ply][1] = killerMoves[ply][0];
+            killerMoves[ply][0] = move;
+        }
+        if (previousMove != NO_MOVE) {
+            counterMoves[MoveEncoding.getSource(previousMove)][MoveEncoding.getTarget(previousMove)] = move;
+        }
+        int[] history = historyScores[isWhiteTurn ? 0 : 1][MoveEncoding.getSource(move)];
+        int target = MoveEncoding.getTarget(move);
+        history[target] += remainingDepth * remainingDepth;
+        if (history[target] > HISTORY_LIMIT) {
+            ageHistory();
+        }
+    }
+
+    int getKillerMove(int ply, int slot) {
+        return killerMoves[ply][slot];
+    }
+
+    int getCounterMove(int previousMove) {
+        return counterMoves[MoveEncoding.getSource(previousMove)][MoveEncoding.getTarget(previousMove)];
+    }
+
+    int getHistoryScore(int move, boolean isWhiteTurn) {
+        return historyScores[isWhiteTurn ? 0 : 1][MoveEncoding.getSource(move)][MoveEncoding.getTarget(move)];
+    }
+
+    // halve every history score, keeps them below HISTORY_LIMIT and lets old information fade
+    private void ageHistory() {
+        for (int[][] sideHistory : historyScores) {
+            for (int[] sourceHistory : sideHistory) {
+                for (int target = 0; target < 64; target++) {
+                    sourceHistory[target] /= 2;
+                }
+            }
+        }
+    }
+
+    // eval board from the side to move's point of view, see Evaluator
+    int evalBoard(ChessBoard board, boolean isWhiteToMove) {
+        int score = evaluator.evaluate(board);
+        return isWhiteToMove ? score : - score;
+    }
+
+    public Move getBestMove(ChessBoard board) {
+        return getBestMove(board, SearchLimits.depth(MAX_SEARCH_DEPTH));
+    }
+
+    public Move getBestMove(ChessBoard board, long timeLimitMillis) {
+        return getBestMove(board, SearchLimits.time(timeLimitMillis));
+    }
+
+    // iterative deepening: search depth 1, 2, 3... until a limit is hit
+    // an iteration that gets aborted is thrown away, the previous iteration's move is returned
+    public Move getBestMove(ChessBoard board, SearchLimits limits) {
+        return search(board, limits, false);
+    }
+
+    private Move search(ChessBoard board, SearchLimits limits, boolean ponder) {
+        // a ponder search has to search, the book move for its position is found once the opponent has moved
+        PolyglotBook book = openingBook;
+        if (book != null && !ponder) {
+            int bookMove = book.probe(board, bookRandom);
+            if (bookMove != NO_MOVE) {
+                principalVariation = new int[]{bookMove};
+                completedDepth = 0;
+                completedScore = 0;
+                stopRequested = false;
+                return MoveEncoding.decode(bookMove, board.getCastleState());
+            }
+        }
+        Tablebase tables = tablebase;
+        if (tables != null && !ponder) {
+            int tablebaseMove = probeRoot(board, tables);
+            if (tablebaseMove != NO_MOVE) {
+                principalVariation = new int[]{tablebaseMove};
+                completedDepth = 0;
+                stopRequested = false;
+                SearchListener listener = searchListener;
+                if (listener != null) {
+                    listener.iterationCompleted(new SearchProgress(0, completedScore, 0, 0, principalVariation.clone()));
+                }
+                return MoveEncoding.decode(tablebaseMove, board.getCastleState());
+            }
+        }
+        transpositionTable.newSearch();
+        searchStartTime = System.currentTimeMillis();
+        searchStartNodes = nodesSearched;
+        long deadline;
+        synchronized (this) {
+            // a ponder search runs unlimited unless the hit came before it even started
+            ponderSearchRunning = ponder && pondering;
+            ponderLimits = limits;
+            ponderHitPending = false;
+            deadline = ponderSearchRunning ? Long.MAX_VALUE : getDeadline(limits);
+            prepareSearch(deadline, ponderSearchRunning ? Long.MAX_VALUE : getNodeLimit(limits));
+        }
+
+        evaluator.prepare(board);
+        // odd helpers start one ply deeper so the threads don't all search the same tree in lockstep
+        Thread[] helperThreads = new Thread[helpers.length];
+        for (int i = 0; i < helpers.length; i++) {
+            ChessEngine helper = helpers[i];
+            ChessBoard helperBoard = new ChessBoard(board);
+            helper.evaluator.prepare(helperBoard);
+            int startDepth = 1 + (i + 1) % 2;
+            helper.prepareSearch(deadline, Long.MAX_VALUE); // the node limit applies to the main thread
+            helperThreads[i] = new Thread(() -> helper.iterativeDeepening(helperBoard, startDepth, SearchLimits.MAX_DEPTH),
+                    "search-helper-" + (i + 1));
+            helperThreads[i].setDaemon(true);
+            helperThreads[i].start();
+        }
+
+        int bestMove = iterativeDeepening(board, 1, limits.maxDepth);
+
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i].stopSearch = true;
+        }
+        // an interrupt (a cancelled startSearch) must not skip the joins, the helpers are reused
+        boolean interrupted = false;
+        for (int i = 0; i < helpers.length; i++) {
+            while (true) {
+                try {
+                    helperThreads[i].join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            nodesSearched += helpers[i].nodesSearched;
+            pruneAmount += helpers[i].pruneAmount;
+            aspirationResearches += helpers[i].aspirationResearches;
+            helpers[i].nodesSearched = 0;
+            helpers[i].pruneAmount = 0;
+            helpers[i].aspirationResearches = 0;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        stopRequested = false;
+        return bestMove == NO_MOVE ? null : MoveEncoding.decode(bestMove, board.getCastleState());
+    }
+
+    // the move the tables score best, NO_MOVE if the root or any of its moves isn't covered
+    // (or there are no moves), leaves its score in completedScore
+    private int probeRoot(ChessBoard board, Tablebase tables) {
+        if (tables.probe(board) == Tablebase.UNKNOWN) {
+            return NO_MOVE;
+        }
+        int[] moves = new int[ChessBoard.MAX_MOVES];
+        int moveCount = board.generateLegalMoves(moves);
+        int bestMove = NO_MOVE;
+        int bestScore = MIN;
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            int result = tables.probe(board);
+            board.undoLastMove();
+            if (result == Tablebase.UNKNOWN) {
+                return NO_MOVE; // e.g. a capture into KPvKP, search instead
+            }
+            int score = -tablebaseScore(result, 1);
+            if (bestMove == NO_MOVE || score > bestScore) {
+                bestMove = moves[i];
+                bestScore = score;
+            }
+        }
+        if (bestMove != NO_MOVE) {
+            completedScore = bestScore;
+        }
+        return bestMove;
+    }
+
+    // a Tablebase.probe result at depth as a score, mates count from the root like the search's own
+    private static int tablebaseScore(int result, int depth) {
+        if (result > 0) return MAX - (depth + result - 1); // mates at depth + result - 1
+        if (result < 0) return MIN + (depth - result - 1);
+        return 0;
+    }
+
+    private static long getDeadline(SearchLimits limits) {
+        return limits.timeLimitMillis == SearchLimits.NO_LIMIT ?
+                Long.MAX_VALUE : System.currentTimeMillis() + limits.timeLimitMillis;
+    }
+
+    // nodesSearched keeps counting across searches until the caller resets it, search thread only
+    private long getNodeLimit(SearchLimits limits) {
+        return limits.nodeLimit == SearchLimits.NO_LIMIT ?
+                Long.MAX_VALUE : nodesSearched + limits.nodeLimit;
+    }
+
+    // a ponder search that finishes early keeps its move until the opponent has actually moved
+    // (or the ponder search is cancelled)
+    private synchronized void waitForPonderHit() {
+        while (pondering) {
+            try {
+                wait();
+            } catch (InterruptedException e) { // cancelled, the move is thrown away
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // called before the search thread starts so a stop request can't be lost
+    private void prepareSearch(long deadline, long nodeLimit) {
+        for (int[] killers : killerMoves) {
+            Arrays.fill(killers, NO_MOVE);
+        }
+        ageHistory();
+        searchDeadline = deadline;
+        searchNodeLimit = nodeLimit;
+        stopSearch = false;
+        completedDepth = 0;
+    }
+
+    // best line of the last completed iteration as packed moves, starting with the move getBestMove returned
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+
+    // returns the best move of the deepest completed iteration, NO_MOVE if there are no legal moves
+    private int iterativeDeepening(ChessBoard board, int startDepth, int maxDepth) {
+        int bestMove = NO_MOVE;
+        principalVariation = new int[0];
+        int score = 0;
+        for (searchDepth = startDepth; searchDepth <= maxDepth; searchDepth++) {
+            score = aspirationSearch(board, score);
+            if (stopSearch) {
+                break;
+            }
+            principalVariation = Arrays.copyOf(pvTable[0], pvLength[0]);
+            bestMove = principalVariation.length > 0 ? principalVariation[0] : NO_MOVE;
+            completedDepth = searchDepth;
+            completedScore = score;
+            SearchListener listener = searchListener;
+            if (listener != null) {
+                long nodes = nodesSearched - searchStartNodes;
+                for (ChessEngine helper : helpers) {
+                    nodes += helper.nodesSearched; // racy read, only for the progress report
+                }
+                listener.iterationCompleted(new SearchProgress(searchDepth, score, nodes,
+                        System.currentTimeMillis() - searchStartTime, principalVariation.clone()));
+            }
+            // no point searching deeper once a forced mate is found
+            if (score > MATE_THRESHOLD || score < -MATE_THRESHOLD || bestMove == NO_MOVE) {
+                break;
+            }
         }
-        moves.sort((a, b) -> Integer.compare(scores.get(b), scores.get(a)));
+        return bestMove;
     }
 
-    // eval board: + nums good for white, - nums good for black
-    private int evalBoard(ChessBoard board, boolean isWhiteToMove) {
-        int pieceMaterialScore = getPieceMaterialScore(board);
-        int gamePhase = -1;
+    // searches the root with a window around the previous iteration's score, widening whichever
+    // side the score falls out of until it lands inside
+    private int aspirationSearch(ChessBoard board, int previousScore) {
+        if (!aspirationWindows || searchDepth < ASPIRATION_MIN_DEPTH || Math.abs(previousScore) > MATE_THRESHOLD) {
+            return negamax(board, 0, searchDepth, board.isWhiteTurn(), MIN, MAX);
+        }
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(previousScore - delta, MIN);
+        int beta = Math.min(previousScore + delta, MAX);
+        while (true) {
+            int score = negamax(board, 0, searchDepth, board.isWhiteTurn(), alpha, beta);
+            if (stopSearch) {
+                return score;
+            }
+            if (score <= alpha) {
+                alpha = Math.max(score - delta, MIN);
+            } else if (score >= beta) {
+                beta = Math.min(score + delta, MAX);
+            } else {
+                return score;
+            }
+            aspirationResearches++;
+            delta *= 4;
+            if (delta > MATE_THRESHOLD / 4) { // way off, just search everything
+                alpha = MIN;
+                beta = MAX;
+            }
+        }
+    }
 
-        if (pieceMaterialScore > OPENING_PHASE_THRESHOLD) {
-            gamePhase = 0;
+    // QUIESCENCE SEARCH
+    // at the horizon keep searching captures and promotions until the position is quiet,
+    // so the static eval is never taken in the middle of an exchange
+    // the side to move may always "stand pat" on the static eval instead of capturing
+    private int quiescence(ChessBoard board, int ply, boolean isWhiteToMove, int alpha, int beta) {
+        nodesSearched++;
+        if (shouldStop()) {
+            return 0; // discarded by getBestMove
         }
-        else if (pieceMaterialScore < ENDGAME_PHASE_THRESHOLD) {
-            gamePhase = 1; // endgame
+        if (ply >= MAX_PLY - 1) {
+            return evalBoard(board, isWhiteToMove);
+        }
+
+        int[] moves = moveBuffers[ply];
+        int[] scores = moveScoreBuffers[ply];
+        int moveCount;
+        int standPat = MIN;
+        boolean inCheck = board.isInCheck();
+        if (inCheck) {
+            // no standing pat in check, every evasion has to be searched
+            moveCount = board.generateLegalMoves(moves);
+            if (moveCount == 0) {
+                return MIN + ply; // mated
+            }
         } else {
-            gamePhase = 2; // midGame
-        }
-        int score;
-        int scoreOpening = 0;
-        int scoreEndgame = 0;
-
-        for (int piece = 0; piece < 6; piece++) {
-            // white eval
-            long pieceMask = board.whiteBitBoards[piece];
-            while (pieceMask != 0) {
-                int pos = getPosOfLeastSigBit(pieceMask);
-                scoreOpening += MATERIAL_SCALING * WHITE_MATERIAL_WEIGHTS[0][piece];
-                scoreEndgame += MATERIAL_SCALING * WHITE_MATERIAL_WEIGHTS[1][piece];
-                scoreOpening += PIECE_SQUARE_TABLE[piece][pos];
-                scoreEndgame += PIECE_SQUARE_TABLE_ENDGAME[piece][pos];
-                pieceMask ^= startingBitBoards[pos];
-            }
-            // black eval
-            pieceMask = board.blackBitBoards[piece];
-            while (pieceMask != 0) {
-                int pos = getPosOfLeastSigBit(pieceMask);
-                scoreOpening -= MATERIAL_SCALING * BLACK_MATERIAL_WEIGHTS[0][piece];
-                scoreEndgame -= MATERIAL_SCALING * BLACK_MATERIAL_WEIGHTS[1][piece];
-
-                scoreOpening -= PIECE_SQUARE_TABLE[piece][63-pos];
-                scoreEndgame -= PIECE_SQUARE_TABLE_ENDGAME[piece][63-pos];
-                pieceMask ^= startingBitBoards[pos];
-            }
-
-        }
-        if (gamePhase == 2) { // midgame
-            score = (
-                    scoreOpening * pieceMaterialScore +
-                            scoreEndgame * (OPENING_PHASE_THRESHOLD - pieceMaterialScore)
-            ) / OPENING_PHASE_THRESHOLD;
-        }
-        else if (gamePhase == 0) { // opening
-            score = scoreOpening;
-        } else { // endgame
-            score = scoreEndgame;
+            standPat = evalBoard(board, isWhiteToMove);
+            if (standPat >= beta) {
+                return standPat;
+            }
+            if (standPat > alpha) {
+                alpha = standPat;
+            }
+            moveCount = board.generateLegalCaptures(moves);
+        }
+
+        // MVV-LVA order, promotions count as capturing the promoted piece
+        for (int i = 0; i < moveCount; i++) {
+            int move = moves[i];
+            scores[i] = 0;
+            if (MoveEncoding.isCapture(move)) {
+                scores[i] += mvvLvaScore(MoveEncoding.getPiece(move), MoveEncoding.getCapturedPiece(move));
+            }
+            if (MoveEncoding.isPromotion(move)) {
+                scores[i] += mvvLvaScore(5, MoveEncoding.getPromotionPiece(move));
+            }
         }
-        return isWhiteToMove ? score : - score;
 
+        int bestScore = standPat;
+        for (int i = 0; i < moveCount; i++) {
+            int move = MovePicker.pickMove(moves, scores, i, moveCount);
+            // delta pruning: even winning the captured piece for free can't raise alpha
+            if (!inCheck && !MoveEncoding.isPromotion(move)
+                    && standPat + WHITE_MATERIAL_WEIGHTS[0][MoveEncoding.getCapturedPiece(move)] + DELTA_MARGIN <= alpha) {
+                continue;
+            }
+            board.makeMove(move);
+            int score = -quiescence(board, ply + 1, !isWhiteToMove, -beta, -alpha);
+            board.undoLastMove();
+            if (stopSearch) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return bestScore;
     }
 
-    public Move getBestMove(ChessBoard board) {
-        AIEvaluation result = negamax(board, 0, board.isWhiteTurn(), MIN, MAX);
-        return result.move;
+    // stops the search once a limit is hit or the thread is interrupted (a cancelled startSearch),
+    // the first iteration always finishes so there is a move
+    private boolean shouldStop() {
+        if (stopSearch) return true;
+        if (searchDepth > 1 && (nodesSearched & TIME_CHECK_INTERVAL) == 0) {
+            if (ponderHitPending) {
+                applyPonderNodeLimit();
+            }
+            if (nodesSearched >= searchNodeLimit || System.currentTimeMillis() >= searchDeadline
+                    || stopRequested || Thread.currentThread().isInterrupted()) {
+                stopSearch = true;
+            }
+        }
+        return stopSearch;
     }
 
-    /**
-     * negamax with move ordering.
-     * returns [bestMove, score].
-     */
+    // the ponder search became the real search, its node limit counts from here
+    private synchronized void applyPonderNodeLimit() {
+        if (ponderHitPending) {
+            ponderHitPending = false;
+            searchNodeLimit = getNodeLimit(ponderLimits);
+        }
+    }
 
-    private AIEvaluation negamax(ChessBoard board, int depth, boolean isWhiteToMove, int alpha, int beta) {
+    // negamax with principal variation search
+    // the first move is searched with the full window, every later move only with a null window
+    // (alpha, alpha + 1) to prove it is no better, and searched again in full if it turns out to be
+    // depth is the ply from the root, remainingDepth what is left to search (less than
+    // searchDepth - depth once a null move or reduction has been taken)
+    // returns the score, the best line is left in pvTable[depth]
+    private int negamax(ChessBoard board, int depth, int remainingDepth, boolean isWhiteToMove, int alpha, int beta) {
         nodesSearched++;
-        ArrayList<Move> moves = board.getLegalPossibleMoves();
-        int gameState = board.checkWinner(moves);
-        if (gameState == 1) { // white win
-            return new AIEvaluation(null, isWhiteToMove ? MAX - depth : MIN + depth); // - depth b/c pick the fastest way to win
-        } else if (gameState == -1) { // black win
-            return new AIEvaluation(null, isWhiteToMove ? MIN + depth : MAX - depth);
-        } else if (gameState == 2) { // draw
-            return new AIEvaluation(null, 0);
-        } else if (depth == MAX_SEARCH_DEPTH) {
-            return new AIEvaluation(null, evalBoard(board, isWhiteToMove));
+        pvLength[depth] = depth;
+        if (shouldStop()) {
+            return 0; // discarded by getBestMove
+        }
+        // draws by rule end the line right here (not at the root, it has to return a move)
+        if (depth > 0 && (board.isRepetition() || board.isFiftyMoveDraw() || board.isInsufficientMaterial())) {
+            return 0;
+        }
+        // so does an ending in the tables, with its exact result
+        Tablebase tables = tablebase;
+        if (depth > 0 && tables != null) {
+            int result = tables.probe(board);
+            if (result != Tablebase.UNKNOWN) {
+                return tablebaseScore(result, depth);
+            }
+        }
+        long key = board.getZobristKey();
+        int originalAlpha = alpha;
+        boolean isPvNode = (long) beta - alpha > 1; // long, the full window overflows an int
+        int hashMove = NO_MOVE;
+        long entry = transpositionTable.probe(key);
+        if (entry != TranspositionTable.MISS) {
+            hashMove = TranspositionTable.getMove(entry);
+            // never cut at the root, we need a move to return, or on the PV, it would cut the line short
+            if (depth > 0 && !isPvNode && TranspositionTable.getDepth(entry) >= remainingDepth) {
+                int entryScore = scoreFromTransposition(TranspositionTable.getScore(entry), depth);
+                int flag = TranspositionTable.getFlag(entry);
+                if (flag == TT_EXACT
+                        || (flag == TT_BETA && entryScore >= beta)
+                        || (flag == TT_ALPHA && entryScore <= alpha)) {
+                    return entryScore;
+                }
+            }
         }
 
-        if (moves.isEmpty()) {
-            // no moves
-            return new AIEvaluation(null, evalBoard(board, isWhiteToMove));
+        if (remainingDepth <= 0 || depth >= MAX_PLY - 1) {
+            return quiescence(board, depth, isWhiteToMove, alpha, beta);
         }
 
-        // order moves with heuristics
-        orderMoves(moves, isWhiteToMove);
+        boolean inCheck = board.isInCheck();
+        int previousMove = board.getLastMove();
+        // null move pruning, not on the PV, in check (passing would be illegal), right after another
+        // null move, or with only king and pawns left where zugzwang makes passing look too good
+        if (nullMovePruning && !isPvNode && !inCheck && depth > 0 && previousMove != NO_MOVE
+                && remainingDepth >= NULL_MOVE_MIN_DEPTH && Math.abs(beta) < MATE_THRESHOLD
+                && board.hasNonPawnMaterial() && evalBoard(board, isWhiteToMove) >= beta) {
+            int reduction = remainingDepth >= 6 ? 3 : 2;
+            board.makeNullMove();
+            int score = -negamax(board, depth + 1, remainingDepth - 1 - reduction, !isWhiteToMove, -beta, -beta + 1);
+            board.undoNullMove();
+            if (stopSearch) {
+                return 0;
+            }
+            if (score >= beta) {
+                return score > MATE_THRESHOLD ? beta : score; // a mate found after passing isn't proven
+            }
+        }
+
+        // moves come from the staged picker, quiet moves are only generated if nothing before them cut off
+        int counterMove = previousMove == NO_MOVE ? NO_MOVE
+                : counterMoves[MoveEncoding.getSource(previousMove)][MoveEncoding.getTarget(previousMove)];
+        MovePicker picker = movePickers[depth];
+        picker.init(board, isWhiteToMove, hashMove, killerMoves[depth][0], killerMoves[depth][1], counterMove);
 
-        Move bestMove = null;
+        int bestMove = NO_MOVE;
         int bestScore = MIN;
+        int legalMoveCount = 0;
 
-        for (Move move : moves) {
+        int move;
+        while ((move = picker.nextMove()) != NO_MOVE) {
+            legalMoveCount++;
             board.makeMove(move);
             // negamax: flip perspective
-            AIEvaluation result = negamax(board, depth + 1, !isWhiteToMove, -beta, -alpha);
-            int score = -result.score;
+            int score;
+            if (legalMoveCount == 1) {
+                score = -negamax(board, depth + 1, remainingDepth - 1, !isWhiteToMove, -beta, -alpha);
+            } else {
+                // late quiet moves that don't give check are searched one or two plies shallower first
+                int reduction = 0;
+                if (lateMoveReductions && legalMoveCount > LMR_MIN_MOVES && remainingDepth >= LMR_MIN_DEPTH
+                        && !inCheck && !MoveEncoding.isTactical(move) && !board.isInCheck()) {
+                    reduction = legalMoveCount > 2 * LMR_MIN_MOVES && remainingDepth >= 6 ? 2 : 1;
+                }
+                score = -negamax(board, depth + 1, remainingDepth - 1 - reduction, !isWhiteToMove, -alpha - 1, -alpha);
+                if (reduction > 0 && score > alpha) {
+                    score = -negamax(board, depth + 1, remainingDepth - 1, !isWhiteToMove, -alpha - 1, -alpha);
+                }
+                if (score > alpha && score < beta) {
+                    score = -negamax(board, depth + 1, remainingDepth - 1, !isWhiteToMove, -beta, -alpha);
+                }
+            }
             board.undoLastMove();
+            if (stopSearch) {
+                return 0; // don't store a partial result
+            }
 
             if (score > bestScore) {
                 bestScore = score;
@@ -316,12 +879,40 @@ public class ChessEngine {
                 if (score > alpha) {
                     pruneAmount++;
                     alpha = score;
+                    updatePrincipalVariation(depth, move);
                     if (alpha >= beta) {
-                        return new AIEvaluation(bestMove, bestScore);
+                        if (!MoveEncoding.isTactical(move)) {
+                            updateQuietMoveHeuristics(move, isWhiteToMove, depth, remainingDepth, previousMove);
+                        }
+                        transpositionTable.store(key, remainingDepth, TT_BETA,
+                                scoreToTransposition(bestScore, depth), MoveEncoding.getCompact(bestMove));
+                        return bestScore;
                     }
                 }
             }
         }
-        return new AIEvaluation(bestMove, bestScore);
+        if (legalMoveCount == 0) {
+            int gameState = board.checkWinner(0);
+            if (gameState == 1) { // white win
+                return isWhiteToMove ? MAX - depth : MIN + depth; // - depth b/c pick the fastest way to win
+            } else if (gameState == -1) { // black win
+                return isWhiteToMove ? MIN + depth : MAX - depth;
+            }
+            return 0; // stalemate
+        }
+
+        int flag = bestScore <= originalAlpha ? TT_ALPHA : TT_EXACT;
+        transpositionTable.store(key, remainingDepth, flag,
+                scoreToTransposition(bestScore, depth), MoveEncoding.getCompact(bestMove));
+        return bestScore;
+    }
+
+    // move raised alpha at ply: the line from ply is now move followed by the child's line
+    private void updatePrincipalVariation(int ply, int move) {
+        int[] line = pvTable[ply];
+        line[ply] = move;
+        int childLength = pvLength[ply + 1];
+        System.arraycopy(pvTable[ply + 1], ply + 1, line, ply + 1, childLength - (ply + 1));
+        pvLength[ply] = childLength;
     }
 }
@@ -0,0 +1,23 @@
+package engine;
+
+import static engine.EvalTables.taper;
+
+// The hand-tuned eval: piece square tables tapered by game phase, which the board keeps up to date in
+// makeMove, plus the pawn structure terms from a pawn hash table
+public class ClassicalEvaluator implements Evaluator {
+    private static final int PAWN_HASH_SIZE_KB = 256;
+
+    private final PawnHashTable pawnHashTable = new PawnHashTable(PAWN_HASH_SIZE_KB);
+
+    @Override
+    public int evaluate(ChessBoard board) {
+        long pawnScores = pawnHashTable.getScores(board);
+        return taper(board.getOpeningScore() + PawnStructure.getOpeningScore(pawnScores),
+                board.getEndgameScore() + PawnStructure.getEndgameScore(pawnScores), board.getPhaseMaterial());
+    }
+
+    // for its hit rate
+    PawnHashTable getPawnHashTable() {
+        return pawnHashTable;
+    }
+}
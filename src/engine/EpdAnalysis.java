@@ -0,0 +1,195 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Batch analysis of an EPD (or FEN) file, one position per line
+// usage: EpdAnalysis <input> <output> [depth] [threads] [hashMB]
+// every position is searched to the given depth and written out as EPD with the results as operations:
+// bm (best move, coordinate notation), ce (centipawns for the side to move) or dm (mate in), acd (depth),
+// acn (nodes), pv, and the input's id if it had one. A line that can't be parsed gets a c0 comment instead
+// the input is streamed, only a few positions per worker are in memory at once, and results are written
+// in input order as soon as every earlier line is done
+// the positions go to a work stealing fork join pool, each worker thread keeps its own board and
+// single threaded engine for as long as it lives, the engine's table is not cleared between positions
+public class EpdAnalysis {
+    private static final int DEFAULT_DEPTH = 8;
+    private static final int DEFAULT_HASH_MB = 16;
+    private static final int POSITIONS_PER_WORKER = 4; // read ahead so workers never wait on the reader
+
+    // 4 position fields, the optional FEN move counters, then the operations
+    private static final Pattern EPD_LINE = Pattern.compile("^\\s*(\\S+\\s+\\S+\\s+\\S+\\s+\\S+)(\\s+\\d+\\s+\\d+)?\\s*(.*)$");
+    private static final Pattern ID_OPERATION = Pattern.compile("(?:^|;)\\s*id\\s+(\"[^\"]*\"|[^;]*);");
+
+    private final int depth;
+    private final int hashSizeMB;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Worker> workers;
+    private final Semaphore inFlight; // positions read but not written yet
+    private final int maxInFlight;
+
+    // finished results waiting for an earlier line, guarded by this
+    private final HashMap<Long, String> finished = new HashMap<>();
+    private long nextToWrite;
+    private Writer out;
+    private IOException writeError;
+
+    private static class Worker {
+        final ChessBoard board = new ChessBoard();
+        final ChessEngine engine;
+
+        Worker(int hashSizeMB) {
+            engine = new ChessEngine(hashSizeMB, 1);
+        }
+    }
+
+    public EpdAnalysis(int depth, int threadCount, int hashSizeMB) {
+        this.depth = depth;
+        this.hashSizeMB = hashSizeMB;
+        pool = new ForkJoinPool(threadCount);
+        workers = ThreadLocal.withInitial(() -> new Worker(this.hashSizeMB));
+        maxInFlight = threadCount * POSITIONS_PER_WORKER;
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: EpdAnalysis <input> <output> [depth] [threads] [hashMB]");
+            System.exit(2);
+        }
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int hashSizeMB = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_HASH_MB;
+
+        EpdAnalysis analysis = new EpdAnalysis(depth, threads, hashSizeMB);
+        long startTime = System.nanoTime();
+        long positions;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]));
+             Writer out = Files.newBufferedWriter(Paths.get(args[1]))) {
+            positions = analysis.run(in, out);
+        } finally {
+            analysis.shutdown();
+        }
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        System.out.printf("%,d positions at depth %d on %d threads in %d ms, %.1f positions/s%n",
+                positions, depth, threads, elapsed / 1_000_000, positions * 1e9 / elapsed);
+    }
+
+    // analyses every non empty line of in and writes the results to out, returns the number of positions
+    public long run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        synchronized (this) {
+            this.out = out;
+            finished.clear();
+            nextToWrite = 0;
+            writeError = null;
+        }
+        long submitted = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            inFlight.acquire(); // released once the line is written, bounds what is held in memory
+            long index = submitted++;
+            String epd = line;
+            pool.execute(() -> {
+                String result;
+                try {
+                    result = analyse(epd);
+                } catch (RuntimeException e) { // a bad line must not keep later lines from being written
+                    result = epd.trim() + " c0 \"" + comment(e) + "\";";
+                }
+                complete(index, result);
+            });
+        }
+        // every permit back means every line has been written
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        synchronized (this) {
+            if (writeError != null) {
+                throw writeError;
+            }
+        }
+        out.flush();
+        return submitted;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // the output line for one input line, runs on a pool thread
+    String analyse(String line) {
+        Matcher epd = EPD_LINE.matcher(line);
+        if (!epd.matches()) {
+            return line.trim() + " c0 \"invalid EPD\";";
+        }
+        String id = "";
+        Matcher idOperation = ID_OPERATION.matcher(epd.group(3));
+        if (idOperation.find()) {
+            id = " id " + idOperation.group(1).trim() + ";";
+        }
+        String counters = epd.group(2) != null ? epd.group(2) : "";
+
+        Worker worker = workers.get();
+        try {
+            worker.board.loadFen(epd.group(1) + counters);
+        } catch (RuntimeException e) {
+            return epd.group(1) + " c0 \"" + comment(e) + "\";" + id;
+        }
+
+        ChessEngine engine = worker.engine;
+        engine.nodesSearched = 0;
+        Move bestMove = engine.getBestMove(worker.board, SearchLimits.depth(depth));
+        StringBuilder result = new StringBuilder(epd.group(1));
+        if (bestMove == null) {
+            // no legal moves, the game is already over
+            result.append(" c0 \"").append(worker.board.isInCheck() ? "checkmate" : "stalemate").append("\";");
+            return result.append(id).toString();
+        }
+        int[] principalVariation = engine.getPrincipalVariation();
+        SearchProgress progress = new SearchProgress(engine.completedDepth, engine.completedScore,
+                engine.nodesSearched, 0, principalVariation);
+        result.append(" bm ").append(MoveEncoding.toAlgebraic(MoveEncoding.encode(bestMove))).append(';');
+        int mateIn = progress.getMateIn();
+        if (mateIn != 0) {
+            result.append(" dm ").append(mateIn).append(';');
+        } else {
+            result.append(" ce ").append(progress.score).append(';');
+        }
+        result.append(" acd ").append(progress.depth).append(';');
+        result.append(" acn ").append(progress.nodes).append(';');
+        result.append(" pv ").append(progress.getPrincipalVariationString()).append(';');
+        return result.append(id).toString();
+    }
+
+    private static String comment(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.toString();
+        return message.replace('"', '\'');
+    }
+
+    // hands a result to the writer, everything that is next in line gets written now
+    private synchronized void complete(long index, String result) {
+        finished.put(index, result);
+        while (finished.containsKey(nextToWrite)) {
+            String line = finished.remove(nextToWrite++);
+            if (writeError == null) {
+                try {
+                    out.write(line);
+                    out.write(System.lineSeparator());
+                } catch (IOException e) {
+                    writeError = e; // reported by run, the remaining lines are still counted off
+                }
+            }
+            inFlight.release();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package engine;
+
+// Static evaluation used by the search, see ChessEngine.setEvaluator
+// evaluators may keep caches and scratch buffers, every search thread gets its own instance
+public interface Evaluator {
+    // + good for white, - good for black
+    int evaluate(ChessBoard board);
+
+    // called with the root board before a search starts making moves on it, for evaluators that
+    // attach incrementally updated state to the board
+    default void prepare(ChessBoard board) {
+    }
+}
@@ -0,0 +1,70 @@
+package engine;
+
+import java.util.Random;
+
+import static engine.MoveGenerationPrecompute.*;
+
+// One time generator for the magic numbers hardcoded in MoveGenerationPrecompute
+// the seed is fixed so rerunning it prints the same numbers, only needed if the masks change
+public class MagicNumberGenerator {
+    private static final long SEED = 0x4D61676963L;
+
+    public static void main(String[] args) {
+        new MoveGenerationPrecompute(); // rays and magic masks
+        Random random = new Random(SEED);
+        long[] rookMagics = new long[64];
+        long[] bishopMagics = new long[64];
+        for (int pos = 0; pos < 64; pos++) {
+            rookMagics[pos] = findMagicNumber(pos, rookMagicMasks[pos], 2, random);
+        }
+        for (int pos = 0; pos < 64; pos++) {
+            bishopMagics[pos] = findMagicNumber(pos, bishopMagicMasks[pos], 3, random);
+        }
+        printMagics("ROOK_MAGICS", rookMagics);
+        printMagics("BISHOP_MAGICS", bishopMagics);
+    }
+
+    // tries sparse random candidates until one maps every blocker combination without a bad collision
+    static long findMagicNumber(int pos, long mask, int piece, Random random) {
+        long[] blockerCombos = getAllBlockerCombinations(mask);
+        long[] attacks = new long[blockerCombos.length];
+        for (int i = 0; i < blockerCombos.length; i++) {
+            attacks[i] = getSlidingAttackWithBlockers(pos, blockerCombos[i], piece);
+        }
+        int indexBits = Long.bitCount(mask);
+        long[] table = new long[1 << indexBits];
+        // slots written by an earlier attempt are stale, so the table never has to be cleared
+        int[] attemptWritten = new int[1 << indexBits];
+        int attempt = 0;
+        while (true) {
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            // the top bits of mask * magic become the index, too few set bits there never works
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) {
+                continue;
+            }
+            attempt++;
+            boolean magicIsValid = true;
+            for (int i = 0; i < blockerCombos.length && magicIsValid; i++) {
+                int index = magicHash(blockerCombos[i], indexBits, magic);
+                if (attemptWritten[index] != attempt) {
+                    attemptWritten[index] = attempt;
+                    table[index] = attacks[i];
+                } else if (table[index] != attacks[i]) {
+                    magicIsValid = false;
+                }
+            }
+            if (magicIsValid) {
+                return magic;
+            }
+        }
+    }
+
+    private static void printMagics(String name, long[] magics) {
+        System.out.println("    private static final long[] " + name + " = {");
+        for (int pos = 0; pos < 64; pos += 4) {
+            System.out.printf("            0x%016XL, 0x%016XL, 0x%016XL, 0x%016XL,%n",
+                    magics[pos], magics[pos + 1], magics[pos + 2], magics[pos + 3]);
+        }
+        System.out.println("    };");
+    }
+}
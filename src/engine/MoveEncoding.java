@@ -0,0 +1,155 @@
+package engine;
+
+// Moves used by the engine are packed into a single int so generating them allocates nothing
+//
+// bit layout:
+//   0-5   source pos
+//   6-11  target pos
+//   12-14 promotion piece (0 = not a promotion, otherwise 1-4 queen, rook, bishop, knight)
+//   15-17 moving piece
+//   18-20 captured piece
+//   21    capture flag
+//   22    castle flag
+//   23    enPassant flag
+//   24    pawn double push flag
+// the low 15 bits (source, target, promotion) identify a move within a position
+public class MoveEncoding {
+    public static final int NO_MOVE = -1;
+
+    public static final int COMPACT_MASK = 0x7FFF;
+
+    private static final int TARGET_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+    private static final int PIECE_SHIFT = 15;
+    private static final int CAPTURED_SHIFT = 18;
+    private static final int CAPTURE_FLAG = 1 << 21;
+    private static final int CASTLE_FLAG = 1 << 22;
+    private static final int EN_PASSANT_FLAG = 1 << 23;
+    private static final int DOUBLE_PUSH_FLAG = 1 << 24;
+
+    private MoveEncoding() {
+    }
+
+    public static int encodeQuiet(int source, int target, int piece) {
+        return source | (target << TARGET_SHIFT) | (piece << PIECE_SHIFT);
+    }
+
+    public static int encodeCapture(int source, int target, int piece, int capturedPiece) {
+        return encodeQuiet(source, target, piece) | (capturedPiece << CAPTURED_SHIFT) | CAPTURE_FLAG;
+    }
+
+    // pass capturedPiece = -1 for a non capture promotion
+    public static int encodePromotion(int source, int target, int capturedPiece, int promotionPiece) {
+        int move = encodeQuiet(source, target, 5) | (promotionPiece << PROMOTION_SHIFT);
+        if (capturedPiece != -1) {
+            move |= (capturedPiece << CAPTURED_SHIFT) | CAPTURE_FLAG;
+        }
+        return move;
+    }
+
+    public static int encodeDoublePush(int source, int target) {
+        return encodeQuiet(source, target, 5) | DOUBLE_PUSH_FLAG;
+    }
+
+    public static int encodeEnPassant(int source, int target) {
+        return encodeCapture(source, target, 5, 5) | EN_PASSANT_FLAG;
+    }
+
+    public static int encodeCastle(int source, int target) {
+        return encodeQuiet(source, target, 0) | CASTLE_FLAG;
+    }
+
+    // converts a GUI facing Move into the packed form
+    public static int encode(Move move) {
+        int encoded;
+        if (move.isCastleMove) {
+            encoded = encodeCastle(move.source, move.target);
+        } else if (move.isEnPassantMove) {
+            encoded = encodeEnPassant(move.source, move.target);
+        } else if (move.isPromotionMove) {
+            encoded = encodePromotion(move.source, move.target,
+                    move.isCaptureMove ? move.pieceCaptured : -1, move.promotionPiece);
+        } else if (move.isCaptureMove) {
+            encoded = encodeCapture(move.source, move.target, move.piece, move.pieceCaptured);
+        } else if (move.piece == 5 && Math.abs(move.source - move.target) == 16) {
+            encoded = encodeDoublePush(move.source, move.target);
+        } else {
+            encoded = encodeQuiet(move.source, move.target, move.piece);
+        }
+        return encoded;
+    }
+
+    // converts a packed move back into a Move, castleState is the castle state before the move
+    public static Move decode(int move, CastleState castleState) {
+        return new Move(getSource(move), getTarget(move), getPiece(move),
+                isCapture(move), getCapturedPiece(move),
+                isPromotion(move), getPromotionPiece(move),
+                isCastle(move), !isCastle(move) || getTarget(move) > getSource(move),
+                castleState, isEnPassant(move));
+    }
+
+    public static int getSource(int move) {
+        return move & 0x3F;
+    }
+
+    public static int getTarget(int move) {
+        return (move >>> TARGET_SHIFT) & 0x3F;
+    }
+
+    public static int getPromotionPiece(int move) {
+        return (move >>> PROMOTION_SHIFT) & 0x7;
+    }
+
+    public static int getPiece(int move) {
+        return (move >>> PIECE_SHIFT) & 0x7;
+    }
+
+    public static int getCapturedPiece(int move) {
+        return (move >>> CAPTURED_SHIFT) & 0x7;
+    }
+
+    public static boolean isPromotion(int move) {
+        return getPromotionPiece(move) != 0;
+    }
+
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE_FLAG) != 0;
+    }
+
+    public static boolean isCastle(int move) {
+        return (move & CASTLE_FLAG) != 0;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT_FLAG) != 0;
+    }
+
+    public static boolean isDoublePush(int move) {
+        return (move & DOUBLE_PUSH_FLAG) != 0;
+    }
+
+    // captures and promotions change material, everything else is quiet
+    public static boolean isTactical(int move) {
+        return (move & CAPTURE_FLAG) != 0 || getPromotionPiece(move) != 0;
+    }
+
+    // source, target and promotion, enough to identify the move in its position (used by the transposition table)
+    public static int getCompact(int move) {
+        return move & COMPACT_MASK;
+    }
+
+    // long algebraic notation (e2e4, e7e8q) for printing
+    public static String toAlgebraic(int move) {
+        String promotionSymbols = " qrbn";
+        String result = squareName(getSource(move)) + squareName(getTarget(move));
+        if (isPromotion(move)) {
+            result += promotionSymbols.charAt(getPromotionPiece(move));
+        }
+        return result;
+    }
+
+    // pos is indexed top left (a8 = 0, h1 = 63)
+    public static String squareName(int pos) {
+        return "" + (char) ('a' + pos % 8) + (char) ('8' - pos / 8);
+    }
+}
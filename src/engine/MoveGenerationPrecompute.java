@@ -1,7 +1,8 @@
 package engine;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 import static engine.BitBoardFunctions.getPosOfLeastSigBit;
 import static engine.BitBoardFunctions.getPosOfMostSigBit;
@@ -41,12 +42,69 @@ public class MoveGenerationPrecompute {
     // right = 4, down right = 5, down = 6, down left = 7 (right shifts)
     // position is square (n) where 0 <= n < 64
 
-    // Magic Bitboard Lookup Tables
-    public static long[][] BISHOP_ATTACK_TABLE; // [pos][has
-    public static long[][] ROOK_ATTACK_TABLE;
+    // [pos1][pos2], 0 if the squares don't share a rank, file or diagonal
+    public static long[][] BETWEEN; // squares strictly between pos1 and pos2
+    public static long[][] LINE; // the whole line through pos1 and pos2 (edge to edge)
 
-    private static long[] BISHOP_MAGICS;
-    private static long[] ROOK_MAGICS;
+    // Magic Bitboard Lookup Tables
+    // relevant blocker masks: the attack masks without the last square of each ray,
+    // a piece on the edge can't block anything behind it
+    public static long[] rookMagicMasks;
+    public static long[] bishopMagicMasks;
+
+    // "fancy" magics: every square's attacks are packed into one shared table,
+    // square pos uses the 1 << bitCount(mask) entries starting at its offset
+    private static long[] SLIDING_ATTACK_TABLE;
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final int[] ROOK_INDEX_BITS = new int[64];
+    private static final int[] BISHOP_INDEX_BITS = new int[64];
+
+    // PEXT backend: Long.compress(blockers, mask) is already a dense index into the square's
+    // attacks, so no magic multiply is needed. Long.compress only exists from JDK 19
+    // (where it becomes a single BMI2 pext instruction) so it is looked up at startup
+    // select with -Dengine.sliders=pext, falls back to magics if Long.compress is missing
+    private static final MethodHandle LONG_COMPRESS = findLongCompress();
+    public static final boolean USE_PEXT = selectPextBackend();
+    private static long[] PEXT_ATTACK_TABLE; // same offsets as SLIDING_ATTACK_TABLE
+
+    // found once by MagicNumberGenerator (fixed seed) for the masks above
+    private static final long[] ROOK_MAGICS = {
+            0x0800002100488402L, 0x621A001DC8010402L, 0x080500A400420801L, 0x011200C410482002L,
+            0x2012042010000901L, 0x5083081500200041L, 0x0002002100401086L, 0x1880004210A18901L,
+            0x0410044100840600L, 0x210082411008A400L, 0x0002001004080200L, 0x8034080105001100L,
+            0x0400100080080480L, 0x0060200015410500L, 0x0021104004832500L, 0x0984244100801500L,
+            0x0900008044020001L, 0x0084020801040050L, 0x0140040002008080L, 0x0818000400808008L,
+            0x0A10000900250010L, 0x0102001080220040L, 0x2400400100810023L, 0x2080002000404000L,
+            0x0001000041000082L, 0x0101000401000200L, 0x0124010040400200L, 0x0008004004040020L,
+            0x20C2102242000A00L, 0x2048224202001082L, 0x0021008021004000L, 0x0020400090800020L,
+            0x0000800180024100L, 0x1000020400010810L, 0x0000040080800200L, 0x4059040080080180L,
+            0x0410090100201000L, 0x8801004100102001L, 0x0040100040200040L, 0x0080004040002002L,
+            0x0010520004048055L, 0x00220C0018023003L, 0x8000808004000201L, 0x0058008080080400L,
+            0x4200808010000800L, 0x0005A60010420080L, 0x4020004020401003L, 0x0880044002200340L,
+            0x0002000908840052L, 0x0084000102041008L, 0x0001000204000900L, 0x0401001008000500L,
+            0x0002004008102200L, 0x1232004200802012L, 0x0000404000201000L, 0x0080800080204008L,
+            0xC080008004B04100L, 0x4400020088040110L, 0x0100020400010008L, 0x038004000A480080L,
+            0x0100100009002004L, 0x40800C2000100081L, 0x0140002000100049L, 0x248000400010208CL
+    };
+    private static final long[] BISHOP_MAGICS = {
+            0x2010040108020011L, 0x000004B102080102L, 0x1811041003100906L, 0x8500000820225400L,
+            0x4004100108208800L, 0x8204128104010400L, 0x0020208401011002L, 0x0200441208010401L,
+            0x0044102220490001L, 0x0090300210B40804L, 0x00026450C2020460L, 0x00001120424418D0L,
+            0x000C186042020208L, 0x2409108425980202L, 0x6301004842089000L, 0x000080B010104080L,
+            0x47100E00890000B0L, 0x42501000A0800120L, 0x200408E882000100L, 0x0000101202020290L,
+            0x5004004208002080L, 0x0209084050000800L, 0x0022084208831202L, 0x1004100208381040L,
+            0x64281A0020008080L, 0x00028411000C0080L, 0x800200A200110804L, 0x4084004010140100L,
+            0x2908400A00002200L, 0x50040C01000A0200L, 0x2201041001021004L, 0x101002A000080940L,
+            0x000220400200520FL, 0x0002640306440200L, 0x4010410406008210L, 0x8109010080104000L,
+            0x0022002008008020L, 0x000C020524080110L, 0x8088088002500901L, 0x4010420204088204L,
+            0x09C0400608640400L, 0x0800842200942121L, 0x04A6001422012001L, 0x0842000401210000L,
+            0x003801C120806000L, 0x0122009000861100L, 0x4202127030050110L, 0x8020484012140501L,
+            0x2000010048028840L, 0x5000820084044100L, 0x0000020805040004L, 0x1011220210004400L,
+            0x0001082050400000L, 0x0830110122120028L, 0x00042890A4004040L, 0x0004851004010408L,
+            0x0410808041202002L, 0x04040202C2200004L, 0x0601010940800800L, 0x3808484002220000L,
+            0x0011040A87100804L, 0x1004041082000008L, 0x0824C81210520106L, 0x800870100A004011L
+    };
 
     public MoveGenerationPrecompute() {
         startingBitBoards = new long[64];
@@ -83,6 +141,7 @@ public class MoveGenerationPrecompute {
         }
 
         RAYS = generateRays();
+        generateLines();
 
         rookAttackMasks = new long[64];
         for (int i = 0; i < 64; i++) {
@@ -98,15 +157,19 @@ public class MoveGenerationPrecompute {
         for (int i = 0; i < 64; i++) {
             queenAttackMasks[i] = generateQueenAttackMask(i);
         }
-        ROOK_MAGICS = new long[64];
-        BISHOP_MAGICS = new long[64];
-        System.out.println("Done!");
 
-        ROOK_ATTACK_TABLE = new long[64][]; // 64 * 2^12 (4096) (possible combos of blocker)
-        BISHOP_ATTACK_TABLE = new long[64][]; // 64 * 2^9 (512)
+        rookMagicMasks = new long[64];
+        bishopMagicMasks = new long[64];
+        for (int i = 0; i < 64; i++) {
+            rookMagicMasks[i] = generateMagicMask(i, 0);
+            bishopMagicMasks[i] = generateMagicMask(i, 1);
+        }
+        System.out.println("Done!");
 
-        generateRookMagicBitBoards();
-        generateBishopMagicBitBoards();
+        generateMagicBitBoards();
+        if (USE_PEXT) {
+            generatePextBitBoards();
+        }
     }
 
     private long generateKingAttackMask(int square) {
@@ -291,6 +354,25 @@ public class MoveGenerationPrecompute {
         return rayResult;
     }
 
+    private void generateLines() {
+        BETWEEN = new long[64][64];
+        LINE = new long[64][64];
+        for (int pos = 0; pos < 64; pos++) {
+            for (int direction = 0; direction < 8; direction++) {
+                int oppositeDirection = (direction + 4) % 8;
+                long ray = RAYS[direction][pos];
+                long line = ray | RAYS[oppositeDirection][pos] | startingBitBoards[pos];
+                while (ray != 0) {
+                    int target = getPosOfLeastSigBit(ray);
+                    // ray from pos minus the ray continuing past target and target itself
+                    BETWEEN[pos][target] = RAYS[direction][pos] & ~RAYS[direction][target] & ~startingBitBoards[target];
+                    LINE[pos][target] = line;
+                    ray ^= startingBitBoards[target];
+                }
+            }
+        }
+    }
+
     // only pass in sliding pieces
     public static long getSlidingAttackWithBlockers(int pos, long blockers, int piece) {
         if (!(1 <= piece && piece <= 3)) throw new RuntimeException("Invalid piece");
@@ -322,116 +404,128 @@ public class MoveGenerationPrecompute {
         return slidingAttackMask;
     }
 
-    private long generateDenseLong() {
-        Random random = new Random();
-        long num1 = random.nextLong() & 0xFFFF;
-        long num2 = random.nextLong() & 0xFFFF;
-        long num3 = random.nextLong() & 0xFFFF;
-        long num4 = random.nextLong() & 0xFFFF;
-        return num1 | (num2 << 16) | (num3 << 32) | (num4 << 48);
-    }
-
-    private long generateMagicCandidate() {
-        return generateDenseLong() & generateDenseLong() & generateDenseLong();
+    // union of the rays starting at firstDirection (0 = rook, 1 = bishop), each without its edge square
+    private long generateMagicMask(int pos, int firstDirection) {
+        long mask = 0;
+        for (int direction = firstDirection; direction < 8; direction += 2) {
+            long endMask = direction < 4 ? LEFT_END_MASKS[direction] : RIGHT_END_MASKS[direction - 4];
+            mask |= RAYS[direction][pos] & ~endMask;
+        }
+        return mask;
     }
 
-    // Carry-Rippler
-    private ArrayList<Long> getAllBlockerCombinations(int pos, int piece) {
-        if (piece != 2 && piece != 3) throw new RuntimeException("Invalid piece");
-        ArrayList<Long> blockerCombinations = new ArrayList<>();
+    // Carry-Rippler, every subset of mask
+    public static long[] getAllBlockerCombinations(long mask) {
+        long[] blockerCombinations = new long[1 << Long.bitCount(mask)];
         long subset = 0;
-        long mask = (piece == 2) ?
-                rookAttackMasks[pos] : bishopAttackMasks[pos]; // no blocker attack mask
+        int count = 0;
         do {
+            blockerCombinations[count++] = subset;
             subset = (subset - mask) & mask;
-            blockerCombinations.add(subset);
         } while (subset != 0);
         return blockerCombinations;
     }
 
-    private long findRookMagicNumber(int pos, ArrayList<Long> blockerCombos) {
-        long magic = 0;
-        boolean foundMagic = false;
-        long[] currMap = new long[16384];
-        int shiftAmount = Long.bitCount(rookAttackMasks[pos]);
-        while (!foundMagic) {
-            magic = generateMagicCandidate();
-            // clear previous incomplete attack table at pos
-            currMap = new long[16384];
-            boolean magicIsInvalid = false;
-            for (long blocker : blockerCombos) {
-                int index = magicHash(blocker, shiftAmount, magic);
-                long attackMask = getSlidingAttackWithBlockers(pos, blocker, 2);
-                // if already found an attack mask at index
-                if (currMap[index] != 0) {
-                    // if not same attackMask magic is invalid
-                    if ((attackMask != currMap[index])) {
-                        magicIsInvalid = true;
-                        break;
-                    }
-                } else { // if no attack mask there yet, add one
-                    currMap[index] = attackMask;
-                }
-            }
-            if (!magicIsInvalid) {
-                foundMagic = true;
+    // fills the shared attack table from the fixed magics, rook squares first then bishop squares
+    private void generateMagicBitBoards() {
+        System.out.print("Generating Magic Attack Tables... ");
+        int tableSize = 0;
+        for (int pos = 0; pos < 64; pos++) {
+            ROOK_INDEX_BITS[pos] = Long.bitCount(rookMagicMasks[pos]);
+            ROOK_OFFSETS[pos] = tableSize;
+            tableSize += 1 << ROOK_INDEX_BITS[pos];
+        }
+        for (int pos = 0; pos < 64; pos++) {
+            BISHOP_INDEX_BITS[pos] = Long.bitCount(bishopMagicMasks[pos]);
+            BISHOP_OFFSETS[pos] = tableSize;
+            tableSize += 1 << BISHOP_INDEX_BITS[pos];
+        }
+        SLIDING_ATTACK_TABLE = new long[tableSize];
+        for (int pos = 0; pos < 64; pos++) {
+            fillAttackTable(pos, 2, rookMagicMasks[pos], ROOK_MAGICS[pos], ROOK_INDEX_BITS[pos], ROOK_OFFSETS[pos]);
+            fillAttackTable(pos, 3, bishopMagicMasks[pos], BISHOP_MAGICS[pos], BISHOP_INDEX_BITS[pos], BISHOP_OFFSETS[pos]);
+        }
+        System.out.println("Done!");
+    }
+
+    private void fillAttackTable(int pos, int piece, long mask, long magic, int indexBits, int offset) {
+        for (long blockers : getAllBlockerCombinations(mask)) {
+            int index = offset + magicHash(blockers, indexBits, magic);
+            long attackMask = getSlidingAttackWithBlockers(pos, blockers, piece);
+            // every attack mask includes at least one square, so 0 means the slot is unused
+            if (SLIDING_ATTACK_TABLE[index] != 0 && SLIDING_ATTACK_TABLE[index] != attackMask) {
+                throw new IllegalStateException("Invalid magic number for " + (piece == 2 ? "rook" : "bishop") + " on " + pos);
             }
+            SLIDING_ATTACK_TABLE[index] = attackMask;
         }
-        ROOK_ATTACK_TABLE[pos] = currMap;
-        return magic;
     }
 
-    // inits it directly
-    public void generateRookMagicBitBoards() {
-        System.out.print("Generating Rook Magic Hash Precomputation Tables... ");
-        for (int pos = 0; pos < 64; pos++) {
-            ROOK_MAGICS[pos] = findRookMagicNumber(pos, getAllBlockerCombinations(pos, 2));
+    private static MethodHandle findLongCompress() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Long.class, "compress",
+                    MethodType.methodType(long.class, long.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
         }
-        System.out.println("Done!");
+    }
+
+    private static boolean selectPextBackend() {
+        String backend = System.getProperty("engine.sliders", "magic");
+        if (!backend.equals("pext")) {
+            return false;
+        }
+        if (LONG_COMPRESS == null) {
+            System.out.println("Long.compress needs JDK 19+, using magic slider attacks");
+            return false;
+        }
+        return true;
+    }
 
+    public static boolean isLongCompressAvailable() {
+        return LONG_COMPRESS != null;
     }
 
-    private long findBishopMagicNumber(int pos, ArrayList<Long> blockerCombos) {
-        long magic = 0;
-        boolean foundMagic = false;
-        long[] currMap = new long[16384];
-        int shiftAmount = Long.bitCount(bishopAttackMasks[pos]);
-        while (!foundMagic) {
-            magic = generateMagicCandidate();
-            // clear previous incomplete attack table at pos
-            currMap = new long[16384];
-            boolean magicIsInvalid = false;
-            for (long blocker : blockerCombos) {
-                int index = magicHash(blocker, shiftAmount, magic);
-                long attackMask = getSlidingAttackWithBlockers(pos, blocker, 3);
-                // if already found an attack mask at index
-                if (currMap[index] != 0) {
-                    // if not same attackMask magic is invalid
-                    if ((attackMask != currMap[index])) {
-                        magicIsInvalid = true;
-                        break;
-                    }
-                } else { // if no attack mask there yet, add one
-                    currMap[index] = attackMask;
-                }
+    // gathers the bits of value selected by mask into the low bits (BMI2 pext)
+    public static long pext(long value, long mask) {
+        if (LONG_COMPRESS != null) {
+            try {
+                return (long) LONG_COMPRESS.invokeExact(value, mask);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
             }
-            if (!magicIsInvalid) {
-                foundMagic = true;
+        }
+        return softwarePext(value, mask);
+    }
+
+    // one bit of the mask at a time, only used to build tables when Long.compress is missing
+    static long softwarePext(long value, long mask) {
+        long result = 0;
+        for (long bit = 1; mask != 0; bit <<= 1) {
+            long lowestBit = mask & -mask;
+            if ((value & lowestBit) != 0) {
+                result |= bit;
             }
+            mask ^= lowestBit;
         }
-        BISHOP_ATTACK_TABLE[pos] = currMap;
-        return magic;
+        return result;
     }
 
-    // inits it directly
-    public void generateBishopMagicBitBoards() {
-        System.out.print("Generating Bishop Magic Hash Precomputation Tables... ");
+    // builds the PEXT table, the lookup functions only use it when USE_PEXT is set
+    public static void generatePextBitBoards() {
+        PEXT_ATTACK_TABLE = new long[SLIDING_ATTACK_TABLE.length];
         for (int pos = 0; pos < 64; pos++) {
-            BISHOP_MAGICS[pos] = findBishopMagicNumber(pos, getAllBlockerCombinations(pos, 3));
+            for (long blockers : getAllBlockerCombinations(rookMagicMasks[pos])) {
+                PEXT_ATTACK_TABLE[ROOK_OFFSETS[pos] + (int) pext(blockers, rookMagicMasks[pos])] =
+                        getSlidingAttackWithBlockers(pos, blockers, 2);
+            }
+            for (long blockers : getAllBlockerCombinations(bishopMagicMasks[pos])) {
+                PEXT_ATTACK_TABLE[BISHOP_OFFSETS[pos] + (int) pext(blockers, bishopMagicMasks[pos])] =
+                        getSlidingAttackWithBlockers(pos, blockers, 3);
+            }
         }
-        System.out.println("Done!");
     }
-    private int magicHash(long blockers, int shift, long magic){
+
+    static int magicHash(long blockers, int shift, long magic){
         return (int) ((blockers * magic) >>> (64-shift));
     }
 
@@ -439,27 +533,44 @@ public class MoveGenerationPrecompute {
     public long getSlidingMagicAttack(int pos, long blockers, int piece) {
         long slidingAttackMask = 0;
         switch (piece) {
-            case 1: {// queen
-                long rookMaskedBlockers = blockers & rookAttackMasks[pos];
-                int rookIndex = magicHash(rookMaskedBlockers, Long.bitCount(rookAttackMasks[pos]), ROOK_MAGICS[pos]);
-                long bishopMaskedBlockers = blockers & bishopAttackMasks[pos];
-                int bishopIndex = magicHash(bishopMaskedBlockers, Long.bitCount(bishopAttackMasks[pos]), BISHOP_MAGICS[pos]);
-                slidingAttackMask = ROOK_ATTACK_TABLE[pos][rookIndex] | BISHOP_ATTACK_TABLE[pos][bishopIndex];
+            case 1: // queen
+                slidingAttackMask = getRookAttack(pos, blockers) | getBishopAttack(pos, blockers);
                 break;
-            }
-            case 2: { // rook
-                long maskedBlockers = blockers & rookAttackMasks[pos];
-                int index = magicHash(maskedBlockers, Long.bitCount(rookAttackMasks[pos]), ROOK_MAGICS[pos]);
-                slidingAttackMask = ROOK_ATTACK_TABLE[pos][index];
+            case 2: // rook
+                slidingAttackMask = getRookAttack(pos, blockers);
                 break;
-            }
-            case 3: {  // bishop
-                long maskedBlockers = blockers & bishopAttackMasks[pos];
-                int index = magicHash(maskedBlockers, Long.bitCount(bishopAttackMasks[pos]), BISHOP_MAGICS[pos]);
-                slidingAttackMask = BISHOP_ATTACK_TABLE[pos][index];
+            case 3: // bishop
+                slidingAttackMask = getBishopAttack(pos, blockers);
                 break;
-            }
         }
         return slidingAttackMask;
     }
+
+    // USE_PEXT is a static final so the JIT removes the branch
+    public static long getRookAttack(int pos, long blockers) {
+        return USE_PEXT ? getRookAttackPext(pos, blockers) : getRookAttackMagic(pos, blockers);
+    }
+
+    public static long getBishopAttack(int pos, long blockers) {
+        return USE_PEXT ? getBishopAttackPext(pos, blockers) : getBishopAttackMagic(pos, blockers);
+    }
+
+    public static long getRookAttackMagic(int pos, long blockers) {
+        return SLIDING_ATTACK_TABLE[ROOK_OFFSETS[pos]
+                + magicHash(blockers & rookMagicMasks[pos], ROOK_INDEX_BITS[pos], ROOK_MAGICS[pos])];
+    }
+
+    public static long getBishopAttackMagic(int pos, long blockers) {
+        return SLIDING_ATTACK_TABLE[BISHOP_OFFSETS[pos]
+                + magicHash(blockers & bishopMagicMasks[pos], BISHOP_INDEX_BITS[pos], BISHOP_MAGICS[pos])];
+    }
+
+    // needs generatePextBitBoards
+    public static long getRookAttackPext(int pos, long blockers) {
+        return PEXT_ATTACK_TABLE[ROOK_OFFSETS[pos] + (int) pext(blockers, rookMagicMasks[pos])];
+    }
+
+    public static long getBishopAttackPext(int pos, long blockers) {
+        return PEXT_ATTACK_TABLE[BISHOP_OFFSETS[pos] + (int) pext(blockers, bishopMagicMasks[pos])];
+    }
 }
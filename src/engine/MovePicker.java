@@ -0,0 +1,148 @@
+package engine;
+
+import static engine.MoveEncoding.NO_MOVE;
+
+// Staged move generation for one node of the search
+// moves come out in the order hash move, captures (MVV-LVA), killers, countermove, quiets (history),
+// and each stage is only generated once the previous one is used up, so a node that cuts off
+// on the hash move or a capture never generates its quiet moves
+// hash, killer and countermove candidates are checked with ChessBoard.toLegalMove first
+class MovePicker {
+    private static final int HASH_STAGE = 0;
+    private static final int GENERATE_CAPTURES_STAGE = 1;
+    private static final int CAPTURE_STAGE = 2;
+    private static final int FIRST_KILLER_STAGE = 3;
+    private static final int SECOND_KILLER_STAGE = 4;
+    private static final int COUNTER_MOVE_STAGE = 5;
+    private static final int GENERATE_QUIETS_STAGE = 6;
+    private static final int QUIET_STAGE = 7;
+
+    private final ChessEngine engine;
+    private final int[] moves = new int[ChessBoard.MAX_MOVES];
+    private final int[] scores = new int[ChessBoard.MAX_MOVES];
+    private int moveCount;
+    private int index;
+    private int stage;
+
+    private ChessBoard board;
+    private boolean isWhiteTurn;
+    private int hashMove; // compact until the hash stage, then the legal full move or NO_MOVE
+    private int firstKiller;
+    private int secondKiller;
+    private int counterMove;
+
+    MovePicker(ChessEngine engine) {
+        this.engine = engine;
+    }
+
+    // killers and the countermove are full moves remembered from other nodes, NO_MOVE if none
+    void init(ChessBoard board, boolean isWhiteTurn, int compactHashMove, int firstKiller, int secondKiller, int counterMove) {
+        this.board = board;
+        this.isWhiteTurn = isWhiteTurn;
+        this.hashMove = compactHashMove;
+        this.firstKiller = firstKiller;
+        this.secondKiller = secondKiller;
+        this.counterMove = counterMove;
+        stage = HASH_STAGE;
+    }
+
+    // the next legal move to search, NO_MOVE once every move has been returned
+    // each stage falls through into the next on purpose once it has nothing left to return
+    @SuppressWarnings("fallthrough")
+    int nextMove() {
+        switch (stage) {
+            case HASH_STAGE:
+                stage++;
+                hashMove = board.toLegalMove(hashMove);
+                if (hashMove != NO_MOVE) {
+                    return hashMove;
+                }
+                // fall through
+            case GENERATE_CAPTURES_STAGE:
+                stage++;
+                moveCount = board.generateLegalCaptures(moves);
+                for (int i = 0; i < moveCount; i++) {
+                    scores[i] = engine.scoreMove(moves[i], isWhiteTurn);
+                }
+                index = 0;
+                // fall through
+            case CAPTURE_STAGE:
+                while (index < moveCount) {
+                    int move = pickMove(moves, scores, index++, moveCount);
+                    if (move != hashMove) {
+                        return move;
+                    }
+                }
+                stage++;
+                // fall through
+            case FIRST_KILLER_STAGE:
+                stage++;
+                firstKiller = toLegalQuietMove(firstKiller);
+                if (firstKiller != NO_MOVE) {
+                    return firstKiller;
+                }
+                // fall through
+            case SECOND_KILLER_STAGE:
+                stage++;
+                secondKiller = toLegalQuietMove(secondKiller);
+                if (secondKiller != NO_MOVE && secondKiller != firstKiller) {
+                    return secondKiller;
+                }
+                // fall through
+            case COUNTER_MOVE_STAGE:
+                stage++;
+                counterMove = toLegalQuietMove(counterMove);
+                if (counterMove != NO_MOVE && counterMove != firstKiller && counterMove != secondKiller) {
+                    return counterMove;
+                }
+                // fall through
+            case GENERATE_QUIETS_STAGE:
+                stage++;
+                moveCount = board.generateLegalQuiets(moves);
+                for (int i = 0; i < moveCount; i++) {
+                    scores[i] = engine.scoreMove(moves[i], isWhiteTurn);
+                }
+                index = 0;
+                // fall through
+            case QUIET_STAGE:
+                while (index < moveCount) {
+                    int move = pickMove(moves, scores, index++, moveCount);
+                    if (move != hashMove && move != firstKiller && move != secondKiller && move != counterMove) {
+                        return move;
+                    }
+                }
+                stage++;
+                // fall through
+            default:
+                return NO_MOVE;
+        }
+    }
+
+    // a remembered quiet move, if it is legal here, isn't the hash move and is still quiet
+    // (the same squares may be a capture in this position, the capture stage had it already)
+    private int toLegalQuietMove(int move) {
+        if (move == NO_MOVE) return NO_MOVE;
+        int legalMove = board.toLegalMove(MoveEncoding.getCompact(move));
+        if (legalMove == NO_MOVE || legalMove == hashMove || MoveEncoding.isTactical(legalMove)) {
+            return NO_MOVE;
+        }
+        return legalMove;
+    }
+
+    // swaps the best scoring of moves[index..moveCount) into index and returns it
+    static int pickMove(int[] moves, int[] scores, int index, int moveCount) {
+        int bestIndex = index;
+        for (int i = index + 1; i < moveCount; i++) {
+            if (scores[i] > scores[bestIndex]) {
+                bestIndex = i;
+            }
+        }
+        int move = moves[bestIndex];
+        int score = scores[bestIndex];
+        moves[bestIndex] = moves[index];
+        scores[bestIndex] = scores[index];
+        moves[index] = move;
+        scores[index] = score;
+        return move;
+    }
+}
@@ -0,0 +1,113 @@
+package engine;
+
+import static engine.MoveGenerationPrecompute.startingBitBoards;
+
+// First layer of an NnueNetwork for one board, kept up to date by ChessBoard (see ChessBoard.setAccumulator)
+// a move pushes a copy of the sums and adds and subtracts the weights of the pieces it moves, takes and
+// promotes, undoing it pops back to the sums from before
+// a level holds both views, white's in [0, accumulatorSize) and black's in [accumulatorSize, 2 * accumulatorSize)
+// the sums are recomputed from the board when they aren't known, at first and after a position is set up or
+// a move is undone past the position they were computed in
+public class NnueAccumulator {
+    private static final int INITIAL_LEVELS = 64;
+
+    final NnueNetwork network;
+    private final int size;
+    private short[][] levels;
+    private int level;
+    private boolean valid;
+
+    public NnueAccumulator(NnueNetwork network) {
+        this.network = network;
+        size = network.accumulatorSize;
+        levels = new short[INITIAL_LEVELS][2 * size];
+    }
+
+    // independent copy, for ChessBoard's copy constructor
+    NnueAccumulator(NnueAccumulator other) {
+        network = other.network;
+        size = other.size;
+        levels = new short[other.levels.length][];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = other.levels[i].clone();
+        }
+        level = other.level;
+        valid = other.valid;
+    }
+
+    // the sums for the board's current position
+    short[] getValues(ChessBoard board) {
+        if (!valid) {
+            refresh(board);
+        }
+        return levels[level];
+    }
+
+    // the board was set up from scratch
+    void invalidate() {
+        valid = false;
+    }
+
+    // called before a move changes any piece
+    void push() {
+        if (!valid) return;
+        if (level + 1 == levels.length) {
+            short[][] grown = new short[levels.length * 2][];
+            System.arraycopy(levels, 0, grown, 0, levels.length);
+            for (int i = levels.length; i < grown.length; i++) {
+                grown[i] = new short[2 * size];
+            }
+            levels = grown;
+        }
+        System.arraycopy(levels[level], 0, levels[level + 1], 0, 2 * size);
+        level++;
+    }
+
+    // called when a move is undone
+    void pop() {
+        if (!valid) return;
+        if (level == 0) {
+            valid = false; // back before the position the sums were computed in
+        } else {
+            level--;
+        }
+    }
+
+    void addPiece(int color, int piece, int pos) {
+        if (!valid) return;
+        short[] values = levels[level];
+        NnueNetwork.KERNELS.add(values, 0, network.featureWeights, network.getFeatureOffset(0, color, piece, pos), size);
+        NnueNetwork.KERNELS.add(values, size, network.featureWeights, network.getFeatureOffset(1, color, piece, pos), size);
+    }
+
+    void removePiece(int color, int piece, int pos) {
+        if (!valid) return;
+        short[] values = levels[level];
+        NnueNetwork.KERNELS.subtract(values, 0, network.featureWeights, network.getFeatureOffset(0, color, piece, pos), size);
+        NnueNetwork.KERNELS.subtract(values, size, network.featureWeights, network.getFeatureOffset(1, color, piece, pos), size);
+    }
+
+    void movePiece(int color, int piece, int source, int target) {
+        removePiece(color, piece, source);
+        addPiece(color, piece, target);
+    }
+
+    private void refresh(ChessBoard board) {
+        level = 0;
+        valid = true;
+        short[] values = levels[0];
+        System.arraycopy(network.featureBiases, 0, values, 0, size);
+        System.arraycopy(network.featureBiases, 0, values, size, size);
+        for (int color = 0; color < 2; color++) {
+            long[] bitBoards = color == 0 ? board.whiteBitBoards : board.blackBitBoards;
+            for (int piece = 0; piece < 6; piece++) {
+                long pieces = bitBoards[piece];
+                while (pieces != 0) {
+                    int pos = Long.numberOfLeadingZeros(pieces); // bit 63 - pos holds pos
+                    pieces &= ~startingBitBoards[pos];
+                    addPiece(color, piece, pos);
+                }
+            }
+        }
+    }
+}
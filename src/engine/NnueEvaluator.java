@@ -0,0 +1,61 @@
+package engine;
+
+// Evaluates with an NnueNetwork, the first layer comes from the NnueAccumulator the board keeps up to date
+// and only the small dense layers are computed per position
+public class NnueEvaluator implements Evaluator {
+    private final NnueNetwork network;
+    // activations, reused for every position
+    private final int[] input;
+    private final int[] hidden1;
+    private final int[] hidden2;
+
+    public NnueEvaluator(NnueNetwork network) {
+        this.network = network;
+        input = new int[2 * network.accumulatorSize];
+        hidden1 = new int[network.hidden1Size];
+        hidden2 = new int[network.hidden2Size];
+    }
+
+    @Override
+    public void prepare(ChessBoard board) {
+        getAccumulator(board).getValues(board);
+    }
+
+    @Override
+    public int evaluate(ChessBoard board) {
+        short[] values = getAccumulator(board).getValues(board);
+        int size = network.accumulatorSize;
+        // the side to move's view first
+        int ownOffset = board.isWhiteTurn() ? 0 : size;
+        int otherOffset = size - ownOffset;
+        for (int i = 0; i < size; i++) {
+            input[i] = clip(values[ownOffset + i]);
+            input[size + i] = clip(values[otherOffset + i]);
+        }
+        NnueNetwork.KERNELS.dense(input, network.hidden1Weights, network.hidden1Biases, hidden1);
+        for (int i = 0; i < hidden1.length; i++) {
+            hidden1[i] = clip(hidden1[i] >> NnueNetwork.HIDDEN_SHIFT);
+        }
+        NnueNetwork.KERNELS.dense(hidden1, network.hidden2Weights, network.hidden2Biases, hidden2);
+        int output = network.outputBias;
+        for (int i = 0; i < hidden2.length; i++) {
+            output += network.outputWeights[i] * clip(hidden2[i] >> NnueNetwork.HIDDEN_SHIFT);
+        }
+        int score = output / NnueNetwork.OUTPUT_SCALE;
+        return board.isWhiteTurn() ? score : -score;
+    }
+
+    // the board's accumulator, a new one if it has none for this network
+    private NnueAccumulator getAccumulator(ChessBoard board) {
+        NnueAccumulator accumulator = board.getAccumulator();
+        if (accumulator == null || accumulator.network != network) {
+            accumulator = new NnueAccumulator(network);
+            board.setAccumulator(accumulator);
+        }
+        return accumulator;
+    }
+
+    private static int clip(int value) {
+        return Math.max(0, Math.min(NnueNetwork.ACTIVATION_MAX, value));
+    }
+}
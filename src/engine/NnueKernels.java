@@ -0,0 +1,29 @@
+package engine;
+
+// The inner loops of the NNUE evaluator, VectorNnueKernels runs them on jdk.incubator.vector and
+// ScalarNnueKernels is the plain Java fallback, both give exactly the same results
+// the vector module is an incubator, it is only there if the JVM is started with
+// --add-modules jdk.incubator.vector, otherwise the vector class can't even be loaded
+interface NnueKernels {
+
+    // the vector kernels if the module is there, the scalar ones otherwise
+    static NnueKernels create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (NnueKernels) Class.forName("engine.VectorNnueKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // compiled without the module, fall through
+            }
+        }
+        return new ScalarNnueKernels();
+    }
+
+    // accumulator[offset + i] += weights[weightOffset + i] for i below size
+    void add(short[] accumulator, int offset, short[] weights, int weightOffset, int size);
+
+    // accumulator[offset + i] -= weights[weightOffset + i] for i below size
+    void subtract(short[] accumulator, int offset, short[] weights, int weightOffset, int size);
+
+    // output[j] = biases[j] + the sum over i of weights[j * input.length + i] * input[i]
+    void dense(int[] input, int[] weights, int[] biases, int[] output);
+}
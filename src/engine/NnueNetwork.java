@@ -0,0 +1,163 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Weights of an NNUE style network, loaded once and shared by every NnueEvaluator and NnueAccumulator
+// 768 inputs, one per piece kind (own/their color x piece) and square, seen from one side: the other side's
+// view mirrors the ranks and swaps the colors, so both sides play with the same weights
+//   inputs -> accumulator (accumulatorSize per side, updated incrementally, see NnueAccumulator)
+//   side to move's accumulator then the other side's -> hidden1 -> hidden2 -> score
+// quantized: clipped ReLU to 0..127 on the accumulator and both hidden layers, whose sums are shifted
+// right by HIDDEN_SHIFT first, and the output sum is OUTPUT_SCALE times the score in centipawns
+// for the side to move
+//
+// file layout, little endian:
+//   int magic "KNN1", int accumulatorSize, int hidden1Size, int hidden2Size
+//   short accumulator weights [768][accumulatorSize], short accumulator biases [accumulatorSize]
+//   short hidden1 weights [hidden1Size][2 * accumulatorSize], int hidden1 biases [hidden1Size]
+//   short hidden2 weights [hidden2Size][hidden1Size], int hidden2 biases [hidden2Size]
+//   short output weights [hidden2Size], int output bias
+public class NnueNetwork {
+    static final int INPUT_SIZE = 768;
+    static final int ACTIVATION_MAX = 127;
+    static final int HIDDEN_SHIFT = 6;
+    static final int OUTPUT_SCALE = 16;
+
+    private static final int MAGIC = 0x4B4E4E31; // "KNN1"
+    private static final int HEADER_SIZE = 16;
+
+    // the inner loops, shared since they keep no state
+    static final NnueKernels KERNELS = NnueKernels.create();
+
+    final int accumulatorSize;
+    final int hidden1Size;
+    final int hidden2Size;
+    final short[] featureWeights;
+    final short[] featureBiases;
+    // the dense layers are int16 in the file and widened here, so the products are plain int lanes
+    final int[] hidden1Weights;
+    final int[] hidden1Biases;
+    final int[] hidden2Weights;
+    final int[] hidden2Biases;
+    final int[] outputWeights;
+    final int outputBias;
+
+    NnueNetwork(int accumulatorSize, int hidden1Size, int hidden2Size, short[] featureWeights, short[] featureBiases,
+                short[] hidden1Weights, int[] hidden1Biases, short[] hidden2Weights, int[] hidden2Biases,
+                short[] outputWeights, int outputBias) {
+        if (accumulatorSize <= 0 || hidden1Size <= 0 || hidden2Size <= 0
+                || featureWeights.length != INPUT_SIZE * accumulatorSize || featureBiases.length != accumulatorSize
+                || hidden1Weights.length != hidden1Size * 2 * accumulatorSize || hidden1Biases.length != hidden1Size
+                || hidden2Weights.length != hidden2Size * hidden1Size || hidden2Biases.length != hidden2Size
+                || outputWeights.length != hidden2Size) {
+            throw new IllegalArgumentException("Layer sizes don't match");
+        }
+        this.accumulatorSize = accumulatorSize;
+        this.hidden1Size = hidden1Size;
+        this.hidden2Size = hidden2Size;
+        this.featureWeights = featureWeights;
+        this.featureBiases = featureBiases;
+        this.hidden1Weights = widen(hidden1Weights);
+        this.hidden1Biases = hidden1Biases;
+        this.hidden2Weights = widen(hidden2Weights);
+        this.hidden2Biases = hidden2Biases;
+        this.outputWeights = widen(outputWeights);
+        this.outputBias = outputBias;
+    }
+
+    public static NnueNetwork load(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a network file: " + file);
+        }
+        int accumulatorSize = buffer.getInt();
+        int hidden1Size = buffer.getInt();
+        int hidden2Size = buffer.getInt();
+        if (accumulatorSize <= 0 || hidden1Size <= 0 || hidden2Size <= 0
+                || buffer.remaining() != getFileSize(accumulatorSize, hidden1Size, hidden2Size) - HEADER_SIZE) {
+            throw new IOException("Network file has the wrong size for its layers: " + file);
+        }
+        return new NnueNetwork(accumulatorSize, hidden1Size, hidden2Size,
+                readShorts(buffer, INPUT_SIZE * accumulatorSize), readShorts(buffer, accumulatorSize),
+                readShorts(buffer, hidden1Size * 2 * accumulatorSize), readInts(buffer, hidden1Size),
+                readShorts(buffer, hidden2Size * hidden1Size), readInts(buffer, hidden2Size),
+                readShorts(buffer, hidden2Size), buffer.getInt());
+    }
+
+    public void write(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) getFileSize(accumulatorSize, hidden1Size, hidden2Size))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(accumulatorSize).putInt(hidden1Size).putInt(hidden2Size);
+        for (short weight : featureWeights) buffer.putShort(weight);
+        for (short bias : featureBiases) buffer.putShort(bias);
+        for (int weight : hidden1Weights) buffer.putShort((short) weight);
+        for (int bias : hidden1Biases) buffer.putInt(bias);
+        for (int weight : hidden2Weights) buffer.putShort((short) weight);
+        for (int bias : hidden2Biases) buffer.putInt(bias);
+        for (int weight : outputWeights) buffer.putShort((short) weight);
+        buffer.putInt(outputBias);
+        Files.write(file, buffer.array());
+    }
+
+    // small random weights, a network that plays badly but exercises everything, for tests and benchmarks
+    static NnueNetwork createRandom(int accumulatorSize, int hidden1Size, int hidden2Size, long seed) {
+        Random random = new Random(seed);
+        int[] hidden1Biases = new int[hidden1Size];
+        int[] hidden2Biases = new int[hidden2Size];
+        for (int i = 0; i < hidden1Size; i++) hidden1Biases[i] = random.nextInt(2001) - 1000;
+        for (int i = 0; i < hidden2Size; i++) hidden2Biases[i] = random.nextInt(2001) - 1000;
+        return new NnueNetwork(accumulatorSize, hidden1Size, hidden2Size,
+                randomShorts(random, INPUT_SIZE * accumulatorSize, 20), randomShorts(random, accumulatorSize, 40),
+                randomShorts(random, hidden1Size * 2 * accumulatorSize, 40), hidden1Biases,
+                randomShorts(random, hidden2Size * hidden1Size, 40), hidden2Biases,
+                randomShorts(random, hidden2Size, 100), random.nextInt(201) - 100);
+    }
+
+    // index of the piece's first accumulator weight, as seen from perspective (0 white, 1 black)
+    int getFeatureOffset(int perspective, int color, int piece, int pos) {
+        int square = perspective == 0 ? pos : pos ^ 56;
+        return (((color ^ perspective) * 6 + piece) * 64 + square) * accumulatorSize;
+    }
+
+    private static long getFileSize(int accumulatorSize, int hidden1Size, int hidden2Size) {
+        return HEADER_SIZE + 2L * (INPUT_SIZE + 1) * accumulatorSize
+                + 2L * hidden1Size * 2 * accumulatorSize + 4L * hidden1Size
+                + 2L * hidden2Size * hidden1Size + 4L * hidden2Size
+                + 2L * hidden2Size + 4;
+    }
+
+    private static short[] readShorts(ByteBuffer buffer, int count) {
+        short[] values = new short[count];
+        buffer.asShortBuffer().get(values);
+        buffer.position(buffer.position() + 2 * count);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static int[] widen(short[] values) {
+        int[] widened = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            widened[i] = values[i];
+        }
+        return widened;
+    }
+
+    private static short[] randomShorts(Random random, int count, int bound) {
+        short[] values = new short[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (short) (random.nextInt(2 * bound + 1) - bound);
+        }
+        return values;
+    }
+}
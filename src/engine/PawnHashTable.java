@@ -0,0 +1,55 @@
+package engine;
+
+// PawnStructure scores cached by ChessBoard.getPawnKey
+// pawns move in few of the positions a search visits, so nearly every lookup is a hit and the
+// pawn terms cost about as much as a table read
+// each search thread has its own table, nothing is shared or locked
+// a slot holds one entry, a new pawn structure just replaces the old one
+public class PawnHashTable {
+    private static final int ENTRY_BYTES = 16; // one key and one packed score
+
+    // an empty slot reads as key 0 with score 0, which is right for the position without pawns
+    private final long[] keys;
+    private final long[] scores; // see PawnStructure.pack
+    private final int indexMask;
+
+    // lookups and hits, for measuring the hit rate
+    private long probes;
+    private long hits;
+
+    public PawnHashTable(int sizeKB) {
+        if (sizeKB <= 0) throw new IllegalArgumentException("Pawn hash table size must be positive");
+        // a power of two so the index is a mask
+        int entries = Integer.highestOneBit(Math.max(1, (int) Math.min((long) sizeKB * 1024 / ENTRY_BYTES, 1 << 30)));
+        keys = new long[entries];
+        scores = new long[entries];
+        indexMask = entries - 1;
+    }
+
+    public int getEntryCount() {
+        return keys.length;
+    }
+
+    // packed pawn structure scores of the board's pawns, evaluated and stored on a miss
+    public long getScores(ChessBoard board) {
+        long key = board.getPawnKey();
+        int index = (int) key & indexMask;
+        probes++;
+        if (keys[index] == key) {
+            hits++;
+            return scores[index];
+        }
+        long entry = PawnStructure.evaluate(board.whiteBitBoards[5], board.blackBitBoards[5]);
+        keys[index] = key;
+        scores[index] = entry;
+        return entry;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,92 @@
+package engine;
+
+import static engine.MoveGenerationPrecompute.startingBitBoards;
+
+// Pawn structure terms of the eval: doubled, isolated and passed pawns
+// they only depend on where the pawns are, the engine caches them by pawn key in a PawnHashTable
+// scores are + good for white, an opening and an endgame score packed in a long (see pack) to be tapered
+public class PawnStructure {
+    // per pawn, {opening, endgame}
+    static final int[] DOUBLED_PENALTY = {10, 20}; // for each pawn after the first on a file
+    static final int[] ISOLATED_PENALTY = {12, 15}; // no pawn of its color on the files next to it
+    // by rank counted from the pawn's own side, 0 is its first rank (no pawn ever stands there)
+    // on top of the piece square tables, which already pay for advanced pawns
+    static final int[][] PASSED_BONUS = {
+            {0, 0, 5, 10, 20, 35, 55, 0}, // opening
+            {0, 5, 10, 20, 35, 60, 90, 0} // endgame
+    };
+
+    private static final long[] FILE_MASKS = new long[8];
+    private static final long[] ADJACENT_FILE_MASKS = new long[8];
+    // squares in front of a pawn on pos on its own and the adjacent files, [white = 0, black = 1][pos]
+    // a pawn with no enemy pawn there is passed
+    private static final long[][] PASSED_PAWN_MASKS = new long[2][64];
+
+    static {
+        for (int pos = 0; pos < 64; pos++) {
+            FILE_MASKS[pos % 8] |= startingBitBoards[pos];
+        }
+        for (int file = 0; file < 8; file++) {
+            ADJACENT_FILE_MASKS[file] = (file > 0 ? FILE_MASKS[file - 1] : 0) | (file < 7 ? FILE_MASKS[file + 1] : 0);
+        }
+        for (int pos = 0; pos < 64; pos++) {
+            long files = FILE_MASKS[pos % 8] | ADJACENT_FILE_MASKS[pos % 8];
+            for (int other = 0; other < 64; other++) {
+                if ((files & startingBitBoards[other]) == 0) continue;
+                // white pawns move towards pos 0
+                if (other / 8 < pos / 8) PASSED_PAWN_MASKS[0][pos] |= startingBitBoards[other];
+                if (other / 8 > pos / 8) PASSED_PAWN_MASKS[1][pos] |= startingBitBoards[other];
+            }
+        }
+    }
+
+    private PawnStructure() {
+    }
+
+    public static long evaluate(long whitePawns, long blackPawns) {
+        int openingScore = 0;
+        int endgameScore = 0;
+        for (int color = 0; color < 2; color++) {
+            long pawns = color == 0 ? whitePawns : blackPawns;
+            long enemyPawns = color == 0 ? blackPawns : whitePawns;
+            int sign = color == 0 ? 1 : -1;
+            for (int file = 0; file < 8; file++) {
+                int fileCount = Long.bitCount(pawns & FILE_MASKS[file]);
+                if (fileCount > 1) {
+                    openingScore -= sign * DOUBLED_PENALTY[0] * (fileCount - 1);
+                    endgameScore -= sign * DOUBLED_PENALTY[1] * (fileCount - 1);
+                }
+            }
+            long remaining = pawns;
+            while (remaining != 0) {
+                int pos = Long.numberOfLeadingZeros(remaining); // bit 63 - pos holds pos
+                remaining &= ~startingBitBoards[pos];
+                int file = pos % 8;
+                if ((pawns & ADJACENT_FILE_MASKS[file]) == 0) {
+                    openingScore -= sign * ISOLATED_PENALTY[0];
+                    endgameScore -= sign * ISOLATED_PENALTY[1];
+                }
+                long passedMask = PASSED_PAWN_MASKS[color][pos];
+                // only the front pawn of a doubled pair counts as passed
+                if ((enemyPawns & passedMask) == 0 && (pawns & passedMask & FILE_MASKS[file]) == 0) {
+                    int rank = color == 0 ? 7 - pos / 8 : pos / 8;
+                    openingScore += sign * PASSED_BONUS[0][rank];
+                    endgameScore += sign * PASSED_BONUS[1][rank];
+                }
+            }
+        }
+        return pack(openingScore, endgameScore);
+    }
+
+    public static long pack(int openingScore, int endgameScore) {
+        return ((long) endgameScore << 32) | (openingScore & 0xFFFFFFFFL);
+    }
+
+    public static int getOpeningScore(long scores) {
+        return (int) scores;
+    }
+
+    public static int getEndgameScore(long scores) {
+        return (int) (scores >> 32);
+    }
+}
@@ -0,0 +1,59 @@
+package engine;
+
+// Runs perft over the standard test positions and compares against the known node counts
+// usage: PerftSuite [maxDepth]
+// prints nodes, time and nodes per second for every depth, exits with 1 if any count is wrong
+public class PerftSuite {
+    // {name, fen, node counts for depth 1, 2, ...}
+    public static final String[][] POSITIONS = {
+            {"start", ChessBoard.STARTING_FEN,
+                    "20", "400", "8902", "197281", "4865609"},
+            {"kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    "48", "2039", "97862", "4085603"},
+            {"position 3 (en passant, pins)", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                    "14", "191", "2812", "43238", "674624"},
+            {"position 4 (promotions, castling)", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    "6", "264", "9467", "422333"},
+            {"position 5", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                    "44", "1486", "62379", "2103487"},
+            {"position 6", "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                    "46", "2079", "89890", "3894594"},
+    };
+
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : Integer.MAX_VALUE;
+        boolean allPassed = true;
+        long totalNodes = 0;
+        long totalTime = 0;
+
+        for (String[] position : POSITIONS) {
+            System.out.println(position[0] + ": " + position[1]);
+            ChessBoard board = new ChessBoard(position[1]);
+            for (int depth = 1; depth <= Math.min(maxDepth, position.length - 2); depth++) {
+                long expected = Long.parseLong(position[depth + 1]);
+                long startTime = System.nanoTime();
+                long nodes = board.perft(depth);
+                long elapsed = System.nanoTime() - startTime;
+                totalNodes += nodes;
+                totalTime += elapsed;
+
+                boolean passed = nodes == expected;
+                allPassed &= passed;
+                System.out.printf("  depth %d: %,d nodes (expected %,d) %s  %d ms  %,d nps%n",
+                        depth, nodes, expected, passed ? "ok" : "FAILED",
+                        elapsed / 1_000_000, nodesPerSecond(nodes, elapsed));
+            }
+        }
+        System.out.printf("total: %,d nodes in %d ms, %,d nps%n",
+                totalNodes, totalTime / 1_000_000, nodesPerSecond(totalNodes, totalTime));
+
+        if (!allPassed) {
+            System.out.println("perft FAILED");
+            System.exit(1);
+        }
+    }
+
+    private static long nodesPerSecond(long nodes, long nanos) {
+        return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+    }
+}
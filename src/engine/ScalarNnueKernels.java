@@ -0,0 +1,31 @@
+package engine;
+
+// NnueKernels in plain Java, for JVMs started without the vector module
+class ScalarNnueKernels implements NnueKernels {
+
+    @Override
+    public void add(short[] accumulator, int offset, short[] weights, int weightOffset, int size) {
+        for (int i = 0; i < size; i++) {
+            accumulator[offset + i] += weights[weightOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(short[] accumulator, int offset, short[] weights, int weightOffset, int size) {
+        for (int i = 0; i < size; i++) {
+            accumulator[offset + i] -= weights[weightOffset + i];
+        }
+    }
+
+    @Override
+    public void dense(int[] input, int[] weights, int[] biases, int[] output) {
+        for (int j = 0; j < output.length; j++) {
+            int sum = biases[j];
+            int row = j * input.length;
+            for (int i = 0; i < input.length; i++) {
+                sum += weights[row + i] * input[i];
+            }
+            output[j] = sum;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package engine;
+
+// limits for one call to ChessEngine.getBestMove, whichever is hit first stops the search
+// the move from the last fully completed depth is returned
+public class SearchLimits {
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+    public static final int MAX_DEPTH = 64;
+
+    public int maxDepth;
+    public long timeLimitMillis;
+    public long nodeLimit;
+
+    public SearchLimits(int maxDepth, long timeLimitMillis, long nodeLimit) {
+        this.maxDepth = Math.min(maxDepth, MAX_DEPTH);
+        this.timeLimitMillis = timeLimitMillis;
+        this.nodeLimit = nodeLimit;
+    }
+
+    public static SearchLimits depth(int maxDepth) {
+        return new SearchLimits(maxDepth, NO_LIMIT, NO_LIMIT);
+    }
+
+    public static SearchLimits time(long timeLimitMillis) {
+        return new SearchLimits(MAX_DEPTH, timeLimitMillis, NO_LIMIT);
+    }
+
+    public static SearchLimits nodes(long nodeLimit) {
+        return new SearchLimits(MAX_DEPTH, NO_LIMIT, nodeLimit);
+    }
+
+    @Override
+    public String toString() {
+        return "(depth " + maxDepth + ", time " + timeLimitMillis + ", nodes " + nodeLimit + ")";
+    }
+}
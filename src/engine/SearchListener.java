@@ -0,0 +1,13 @@
+package engine;
+
+// receives updates from a search started with ChessEngine.startSearch (or getBestMove)
+// both methods are called on the search thread, a GUI has to hand the result over to its own thread
+public interface SearchListener {
+    // called after every completed iteration of the main search thread
+    void iterationCompleted(SearchProgress progress);
+
+    // called once with the move the search settled on (null if there are no legal moves),
+    // not called for a search that was cancelled
+    default void searchFinished(Move bestMove) {
+    }
+}
@@ -0,0 +1,44 @@
+package engine;
+
+// snapshot of a search after one iterative deepening iteration
+public class SearchProgress {
+    public final int depth;
+    public final int score; // from the side to move's point of view
+    public final long nodes; // all threads, since the search started
+    public final long timeMillis;
+    public final int[] principalVariation; // packed moves, see MoveEncoding
+
+    public SearchProgress(int depth, int score, long nodes, long timeMillis, int[] principalVariation) {
+        this.depth = depth;
+        this.score = score;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+        this.principalVariation = principalVariation;
+    }
+
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(1, timeMillis);
+    }
+
+    // moves until mate, negative if the side to move is getting mated, 0 if the score isn't a mate
+    public int getMateIn() {
+        if (score > ChessEngine.MATE_THRESHOLD) return (Integer.MAX_VALUE - score + 1) / 2;
+        if (score < -ChessEngine.MATE_THRESHOLD) return -(Integer.MAX_VALUE + score) / 2;
+        return 0;
+    }
+
+    public String getPrincipalVariationString() {
+        StringBuilder line = new StringBuilder();
+        for (int move : principalVariation) {
+            if (line.length() > 0) line.append(' ');
+            line.append(MoveEncoding.toAlgebraic(move));
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + " score " + score + " nodes " + nodes + " nps " + getNodesPerSecond()
+                + " time " + timeMillis + " pv " + getPrincipalVariationString();
+    }
+}
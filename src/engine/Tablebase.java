@@ -0,0 +1,305 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static engine.MoveGenerationPrecompute.startingBitBoards;
+
+// Endgame tables for the 3 and 4 piece endings built by TablebaseGenerator, one .ktb file per ending
+// a probe gives the exact result with best play: draw, or mate in n plies for the winning side
+// the files are mapped read only, each position is a few bits at its index (see Table)
+// castling, en passant and the fifty move rule aren't in the tables, positions with castle rights aren't probed
+public class Tablebase {
+    public static final int UNKNOWN = Integer.MIN_VALUE; // the position isn't covered
+    public static final int MAX_PIECES = 4;
+    static final String FILE_EXTENSION = ".ktb";
+
+    private static final int MAGIC = 0x4B544231; // "KTB1"
+    private static final int HEADER_SIZE = 16; // magic, bits per entry, entry count
+    static final String PIECE_LETTERS = "KQRBNP"; // by piece index
+
+    private Table[] tables = new Table[0];
+    private int maxPieces = 2;
+
+    // every .ktb file in directory
+    public static Tablebase open(Path directory) throws IOException {
+        Tablebase tablebase = new Tablebase();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)) {
+            for (Path file : files) {
+                tablebase.add(Table.map(file));
+            }
+        }
+        return tablebase;
+    }
+
+    void add(Table table) {
+        tables = Arrays.copyOf(tables, tables.length + 1);
+        tables[tables.length - 1] = table;
+        maxPieces = Math.max(maxPieces, table.slotPieces.length);
+    }
+
+    public int getTableCount() {
+        return tables.length;
+    }
+
+    // most pieces (kings included) of any loaded ending
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    // 0 for a draw, otherwise (plies to mate + 1), positive if the side to move mates and negative
+    // if it gets mated: 2 is mate in one, -1 is already mated, -3 is mated after one move by each side
+    // UNKNOWN if the position has too many pieces, castle rights, or its ending isn't loaded
+    public int probe(ChessBoard board) {
+        long[] white = board.whiteBitBoards;
+        long[] black = board.blackBitBoards;
+        long occupancy = white[0] | white[1] | white[2] | white[3] | white[4] | white[5]
+                | black[0] | black[1] | black[2] | black[3] | black[4] | black[5];
+        if (Long.bitCount(occupancy) > maxPieces || board.getCastleRights() != 0) {
+            return UNKNOWN;
+        }
+        if (board.isInsufficientMaterial()) {
+            return 0; // no table for these, KBK and KNK are draws everywhere
+        }
+        int key = materialKey(white, black);
+        for (Table table : tables) {
+            if (table.materialKey == key) return table.probe(board, false);
+            if (table.mirroredKey == key) return table.probe(board, true);
+        }
+        return UNKNOWN;
+    }
+
+    // piece counts (kings left out) packed 3 bits each, white then black
+    static int materialKey(long[] whitePieces, long[] blackPieces) {
+        int key = 0;
+        for (int piece = 1; piece < 6; piece++) {
+            key |= Long.bitCount(whitePieces[piece]) << (3 * (piece - 1));
+            key |= Long.bitCount(blackPieces[piece]) << (15 + 3 * (piece - 1));
+        }
+        return key;
+    }
+
+    // one ending, e.g. KQvKR, with its pieces in a fixed slot order: white's in KQRBNP order, then black's
+    // a position's index is the square of every slot (6 bits each, first slot highest) then the side to move
+    // (0 white, 1 black); pieces of the same kind and color take their slots in square order
+    // positions of the ending with the colors swapped are looked up with the board flipped
+    // the board is also mirrored so the white king (slot 0) is on files a-d, and without pawns on the
+    // a1-d1-d4 triangle too, then slot 0 is the index of its square among those (32 or 10) squares
+    // every position has one index, the other indices are never probed
+    static class Table {
+        private static final int[] PAWN_KING_INDEX = new int[64]; // pos -> 0..31 on files a-d, -1 elsewhere
+        private static final int[] PAWN_KING_SQUARES = new int[32];
+        private static final int[] PAWNLESS_KING_INDEX = new int[64]; // pos -> 0..9 on a1-d1-d4, -1 elsewhere
+        private static final int[] PAWNLESS_KING_SQUARES = new int[10];
+
+        static {
+            Arrays.fill(PAWN_KING_INDEX, -1);
+            Arrays.fill(PAWNLESS_KING_INDEX, -1);
+            int pawnlessCount = 0;
+            for (int pos = 0; pos < 64; pos++) {
+                int file = pos % 8;
+                int rank = 7 - pos / 8;
+                if (file <= 3) {
+                    PAWN_KING_INDEX[pos] = pos / 8 * 4 + file;
+                    PAWN_KING_SQUARES[PAWN_KING_INDEX[pos]] = pos;
+                }
+                if (file <= 3 && rank <= file) {
+                    PAWNLESS_KING_INDEX[pos] = pawnlessCount;
+                    PAWNLESS_KING_SQUARES[pawnlessCount++] = pos;
+                }
+            }
+        }
+
+        final String name;
+        final int[] slotPieces;
+        final boolean[] slotWhite;
+        final boolean hasPawns;
+        final int materialKey;
+        final int mirroredKey;
+        final int entryCount;
+
+        // packed entries, values are 0 for a draw or (plies to mate + 1), so odd plies are wins for the side to move
+        private ByteBuffer data;
+        private int bitsPerEntry;
+
+        Table(String name) {
+            String[] sides = name.split("v");
+            if (sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K")) {
+                throw new IllegalArgumentException("Invalid ending: " + name);
+            }
+            this.name = name;
+            String pieces = sides[0] + sides[1];
+            slotPieces = new int[pieces.length()];
+            slotWhite = new boolean[pieces.length()];
+            long[] white = new long[6];
+            long[] black = new long[6];
+            for (int slot = 0; slot < pieces.length(); slot++) {
+                int piece = PIECE_LETTERS.indexOf(pieces.charAt(slot));
+                if (piece == -1) {
+                    throw new IllegalArgumentException("Invalid ending: " + name);
+                }
+                slotPieces[slot] = piece;
+                slotWhite[slot] = slot < sides[0].length();
+                // any distinct squares will do for counting
+                (slotWhite[slot] ? white : black)[piece] |= 1L << slot;
+            }
+            if (pieces.length() > MAX_PIECES) {
+                throw new IllegalArgumentException("At most " + MAX_PIECES + " pieces: " + name);
+            }
+            hasPawns = white[5] != 0 || black[5] != 0;
+            materialKey = materialKey(white, black);
+            mirroredKey = materialKey(black, white);
+            int kingSquares = hasPawns ? PAWN_KING_SQUARES.length : PAWNLESS_KING_SQUARES.length;
+            entryCount = kingSquares * (1 << (6 * (slotPieces.length - 1))) * 2;
+        }
+
+        static Table map(Path file) throws IOException {
+            String fileName = file.getFileName().toString();
+            Table table = new Table(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                table.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (table.data.getInt(0) != MAGIC || table.data.getLong(8) != table.entryCount) {
+                throw new IOException("Not a " + table.name + " table: " + file);
+            }
+            table.bitsPerEntry = table.data.getInt(4);
+            return table;
+        }
+
+        // packs values[] into the file, with as few bits per entry as the largest value needs
+        static void write(Path file, byte[] values) throws IOException {
+            int maxValue = 0;
+            for (byte value : values) {
+                maxValue = Math.max(maxValue, value & 0xFF);
+            }
+            int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxValue));
+            // one spare byte so every entry can be read as two bytes
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (int) (((long) values.length * bits + 7) / 8) + 1);
+            buffer.putInt(MAGIC).putInt(bits).putLong(values.length);
+            long bitBuffer = 0;
+            int bitCount = 0;
+            for (byte value : values) {
+                bitBuffer = (bitBuffer << bits) | (value & 0xFF);
+                bitCount += bits;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    buffer.put((byte) (bitBuffer >>> bitCount));
+                }
+            }
+            if (bitCount > 0) {
+                buffer.put((byte) (bitBuffer << (8 - bitCount)));
+            }
+            Files.write(file, buffer.array());
+        }
+
+        int getValue(int index) {
+            long bitOffset = (long) index * bitsPerEntry;
+            int twoBytes = data.getShort(HEADER_SIZE + (int) (bitOffset >>> 3)) & 0xFFFF;
+            return (twoBytes >>> (16 - (int) (bitOffset & 7) - bitsPerEntry)) & ((1 << bitsPerEntry) - 1);
+        }
+
+        // see Tablebase.probe, mirrored swaps the colors and flips the board
+        int probe(ChessBoard board, boolean mirrored) {
+            int value = getValue(indexOf(board, mirrored));
+            if (value == 0) return 0;
+            return ((value - 1) & 1) == 1 ? value : -value;
+        }
+
+        int indexOf(ChessBoard board, boolean mirrored) {
+            int[] squares = new int[slotPieces.length];
+            int slot = 0;
+            while (slot < slotPieces.length) {
+                long[] bitBoards = slotWhite[slot] != mirrored ? board.whiteBitBoards : board.blackBitBoards;
+                long pieces = bitBoards[slotPieces[slot]];
+                while (pieces != 0) {
+                    int pos = Long.numberOfLeadingZeros(pieces); // bit 63 - pos holds pos
+                    pieces &= ~startingBitBoards[pos];
+                    squares[slot++] = mirrored ? pos ^ 56 : pos;
+                }
+            }
+            return indexOf(squares, board.isWhiteTurn() != mirrored);
+        }
+
+        // index of the position with the slots on squares, squares is left mirrored and sorted as indexed
+        // with slot 0 on the a1-h8 diagonal both mirror images in it fit, the lower index is the position's
+        int indexOf(int[] squares, boolean whiteToMove) {
+            if (squares[0] % 8 > 3) {
+                transform(squares, 7); // flip the files
+            }
+            int index;
+            if (hasPawns) {
+                index = sortedIndexOf(squares);
+            } else {
+                if (squares[0] / 8 < 4) {
+                    transform(squares, 56); // flip the ranks
+                }
+                if (7 - squares[0] / 8 > squares[0] % 8) {
+                    mirrorDiagonal(squares);
+                }
+                index = sortedIndexOf(squares);
+                if (7 - squares[0] / 8 == squares[0] % 8) {
+                    int[] mirrored = squares.clone();
+                    mirrorDiagonal(mirrored);
+                    int mirroredIndex = sortedIndexOf(mirrored);
+                    if (mirroredIndex < index) {
+                        System.arraycopy(mirrored, 0, squares, 0, squares.length);
+                        index = mirroredIndex;
+                    }
+                }
+            }
+            return index * 2 + (whiteToMove ? 0 : 1);
+        }
+
+        // same kind pieces in square order, then the index without the side to move
+        private int sortedIndexOf(int[] squares) {
+            for (int slot = 1; slot < squares.length; slot++) {
+                for (int i = slot; i > 0 && isSameKind(i - 1, i) && squares[i - 1] > squares[i]; i--) {
+                    int square = squares[i];
+                    squares[i] = squares[i - 1];
+                    squares[i - 1] = square;
+                }
+            }
+            int index = hasPawns ? PAWN_KING_INDEX[squares[0]] : PAWNLESS_KING_INDEX[squares[0]];
+            for (int slot = 1; slot < squares.length; slot++) {
+                index = index * 64 + squares[slot];
+            }
+            return index;
+        }
+
+        // the squares of index, the reverse of indexOf, returns whether white is to move
+        boolean getSquares(int index, int[] squares) {
+            int rest = index >>> 1;
+            for (int slot = squares.length - 1; slot > 0; slot--) {
+                squares[slot] = rest & 63;
+                rest >>>= 6;
+            }
+            squares[0] = hasPawns ? PAWN_KING_SQUARES[rest] : PAWNLESS_KING_SQUARES[rest];
+            return (index & 1) == 0;
+        }
+
+        boolean isSameKind(int slot1, int slot2) {
+            return slotPieces[slot1] == slotPieces[slot2] && slotWhite[slot1] == slotWhite[slot2];
+        }
+
+        // mirror in the a1-h8 diagonal, file and rank swap
+        private static void mirrorDiagonal(int[] squares) {
+            for (int slot = 0; slot < squares.length; slot++) {
+                int file = squares[slot] % 8;
+                int rank = 7 - squares[slot] / 8;
+                squares[slot] = (7 - file) * 8 + rank;
+            }
+        }
+
+        private static void transform(int[] squares, int mask) {
+            for (int slot = 0; slot < squares.length; slot++) {
+                squares[slot] ^= mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static engine.MoveGenerationPrecompute.*;
+
+// Builds the Tablebase files by retrograde analysis
+// usage: TablebaseGenerator <directory> [maxPieces]
+// every ending with up to maxPieces pieces (3 or 4, kings included) gets a .ktb file, endings that already
+// have one are skipped; smaller endings are built first since captures and promotions lead into them
+// 1. the legal moves of every position are generated once with ChessBoard: mates are final, captures and
+//    promotions are scored from the smaller ending and the other moves are counted
+// 2. going out from the mates one ply at a time, the positions one move before each decided position are found
+//    by taking back a move of the side not to move: a move into a loss makes a win one ply longer, and a
+//    position whose counted moves all lead into wins is lost once the last of them is known
+// 3. whatever is still undecided is a draw
+// KPvKP is left out, en passant isn't in the tables and that is the only ending here where it can happen
+public class TablebaseGenerator {
+    private static final int MAX_PLIES = 250; // values are bytes, plies + 1
+    private static final int DRAWING_MOVE = 255; // in externalLoss: some capture or promotion draws
+
+    private final Tablebase tablebase; // the smaller endings
+    private final Tablebase.Table table;
+    private final int slotCount;
+    private final byte[] values; // 0 draw (or undecided while generating), otherwise plies to mate + 1
+    private final byte[] remaining; // counted moves whose result isn't known yet
+    private final byte[] externalWin; // fastest win through a capture or promotion (plies + 1), 0 if none
+    private final byte[] externalLoss; // slowest loss through one (plies + 1), 0 if none
+    private int lastPly; // the longest mate decided so far
+
+    // scratch for retract and decode
+    private final int[] squares;
+    private final int[] predecessorSquares;
+    private final int[] decodedSquares;
+    private final int[] predecessors = new int[ChessBoard.MAX_MOVES];
+
+    private TablebaseGenerator(Tablebase tablebase, Tablebase.Table table) {
+        this.tablebase = tablebase;
+        this.table = table;
+        slotCount = table.slotPieces.length;
+        values = new byte[table.entryCount];
+        remaining = new byte[table.entryCount];
+        externalWin = new byte[table.entryCount];
+        externalLoss = new byte[table.entryCount];
+        squares = new int[slotCount];
+        predecessorSquares = new int[slotCount];
+        decodedSquares = new int[slotCount];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TablebaseGenerator <directory> [maxPieces]");
+            System.exit(2);
+        }
+        int maxPieces = args.length > 1 ? Integer.parseInt(args[1]) : Tablebase.MAX_PIECES;
+        generate(Paths.get(args[0]), maxPieces);
+    }
+
+    // builds every missing ending up to maxPieces in directory, returns all of them opened
+    public static Tablebase generate(Path directory, int maxPieces) throws IOException {
+        Files.createDirectories(directory);
+        Tablebase tablebase = new Tablebase();
+        for (String ending : getEndings(maxPieces)) {
+            Path file = directory.resolve(ending + Tablebase.FILE_EXTENSION);
+            if (!Files.exists(file)) {
+                long startTime = System.nanoTime();
+                TablebaseGenerator generator = new TablebaseGenerator(tablebase, new Tablebase.Table(ending));
+                generator.run();
+                Tablebase.Table.write(file, generator.values);
+                System.out.printf("%s: longest mate %d plies, %,d bytes, %d ms%n", ending, generator.lastPly,
+                        Files.size(file), (System.nanoTime() - startTime) / 1_000_000);
+            }
+            tablebase.add(Tablebase.Table.map(file));
+        }
+        return tablebase;
+    }
+
+    // e.g. KQvK, KRvKB, with the stronger side as white; smaller endings and fewer pawns first
+    static List<String> getEndings(int maxPieces) {
+        if (maxPieces > Tablebase.MAX_PIECES) {
+            throw new IllegalArgumentException("At most " + Tablebase.MAX_PIECES + " pieces");
+        }
+        List<String> pieceSets = new ArrayList<>();
+        addPieceSets(pieceSets, "", 0, maxPieces - 2);
+        List<String> endings = new ArrayList<>();
+        for (String white : pieceSets) {
+            for (String black : pieceSets) {
+                int pieceCount = white.length() + black.length();
+                if (pieceCount == 0 || pieceCount > maxPieces - 2 || compareSides(white, black) < 0) continue;
+                if (pieceCount == 1 && (white.equals("B") || white.equals("N"))) continue; // can't mate
+                if (white.equals("P") && black.equals("P")) continue; // en passant
+                endings.add("K" + white + "vK" + black);
+            }
+        }
+        endings.sort(Comparator.comparingInt((String ending) -> ending.length())
+                .thenComparingLong(ending -> ending.chars().filter(c -> c == 'P').count()));
+        return endings;
+    }
+
+    // every set of up to size pieces (kings not included) in KQRBNP order
+    private static void addPieceSets(List<String> pieceSets, String pieces, int firstPiece, int size) {
+        pieceSets.add(pieces);
+        if (pieces.length() == size) return;
+        for (int piece = Math.max(1, firstPiece); piece < 6; piece++) {
+            addPieceSets(pieceSets, pieces + Tablebase.PIECE_LETTERS.charAt(piece), piece, size);
+        }
+    }
+
+    // more pieces is stronger, then the better piece at the first difference
+    private static int compareSides(String white, String black) {
+        if (white.length() != black.length()) return white.length() - black.length();
+        for (int i = 0; i < white.length(); i++) {
+            int difference = Tablebase.PIECE_LETTERS.indexOf(black.charAt(i)) - Tablebase.PIECE_LETTERS.indexOf(white.charAt(i));
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    private void run() {
+        initialize();
+        for (int ply = 0; ply <= lastPly; ply++) {
+            for (int index = 0; index < values.length; index++) {
+                if (values[index] == 0 && (externalWin[index] & 0xFF) == ply + 1) {
+                    values[index] = (byte) (ply + 1); // nothing inside the ending wins faster than the capture
+                }
+                if ((values[index] & 0xFF) == ply + 1) {
+                    retract(index, ply);
+                }
+            }
+        }
+    }
+
+    // step 1, every legal position's own moves
+    private void initialize() {
+        ChessBoard board = new ChessBoard();
+        long[] whitePieces = new long[6];
+        long[] blackPieces = new long[6];
+        int[] moves = new int[ChessBoard.MAX_MOVES];
+        int[] children = new int[ChessBoard.MAX_MOVES];
+        for (int index = 0; index < values.length; index++) {
+            if (!decode(index, squares)) {
+                continue;
+            }
+            Arrays.fill(whitePieces, 0);
+            Arrays.fill(blackPieces, 0);
+            for (int slot = 0; slot < slotCount; slot++) {
+                (table.slotWhite[slot] ? whitePieces : blackPieces)[table.slotPieces[slot]] |= startingBitBoards[squares[slot]];
+            }
+            board.setPieces(whitePieces, blackPieces, (index & 1) == 0);
+            board.switchTurn();
+            boolean illegal = board.isInCheck(); // the side that just moved can't be in check
+            board.switchTurn();
+            if (illegal) {
+                continue;
+            }
+
+            int moveCount = board.generateLegalMoves(moves);
+            if (moveCount == 0) {
+                if (board.isInCheck()) {
+                    values[index] = 1; // mated, stalemate stays a draw
+                }
+                continue;
+            }
+            int count = 0;
+            int win = 0;
+            int loss = 0;
+            for (int i = 0; i < moveCount; i++) {
+                int move = moves[i];
+                board.makeMove(move);
+                if (!MoveEncoding.isCapture(move) && !MoveEncoding.isPromotion(move)) {
+                    // moves into mirror images of the same position count once, retract finds them once
+                    int child = table.indexOf(board, false);
+                    board.undoLastMove();
+                    if (!contains(children, count, child)) {
+                        children[count++] = child;
+                    }
+                    continue;
+                }
+                int result = tablebase.probe(board);
+                if (result == Tablebase.UNKNOWN) {
+                    throw new IllegalStateException("No table for " + board.toFen());
+                }
+                board.undoLastMove();
+                // the smaller ending's result is from the opponent's side, one ply later
+                if (result < 0) {
+                    win = win == 0 ? -result + 1 : Math.min(win, -result + 1);
+                } else if (result == 0) {
+                    loss = DRAWING_MOVE;
+                } else if (loss != DRAWING_MOVE) {
+                    loss = Math.max(loss, result + 1);
+                }
+            }
+            remaining[index] = (byte) count;
+            externalWin[index] = (byte) win;
+            externalLoss[index] = (byte) loss;
+            if (win != 0) {
+                setLastPly(win - 1);
+            } else if (count == 0 && loss != DRAWING_MOVE) {
+                values[index] = (byte) loss; // every move is a losing capture or promotion
+                setLastPly(loss - 1);
+            }
+        }
+    }
+
+    // step 2, index was decided at ply: update every position a move before it
+    private void retract(int index, int ply) {
+        decode(index, squares);
+        boolean moverWhite = (index & 1) == 1; // the side that isn't to move made the last move
+        long occupied = 0;
+        int kingSquare = -1; // the side to move's king, it can't have been in check with the other side to move
+        for (int slot = 0; slot < slotCount; slot++) {
+            occupied |= startingBitBoards[squares[slot]];
+            if (table.slotPieces[slot] == 0 && table.slotWhite[slot] != moverWhite) {
+                kingSquare = squares[slot];
+            }
+        }
+        int predecessorCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (table.slotWhite[slot] != moverWhite) continue;
+            long origins = getOrigins(table.slotPieces[slot], moverWhite, squares[slot], occupied);
+            while (origins != 0) {
+                int origin = Long.numberOfLeadingZeros(origins); // bit 63 - pos holds pos
+                origins &= ~startingBitBoards[origin];
+                System.arraycopy(squares, 0, predecessorSquares, 0, slotCount);
+                predecessorSquares[slot] = origin;
+                long predecessorOccupied = occupied ^ startingBitBoards[squares[slot]] ^ startingBitBoards[origin];
+                if (isAttacked(kingSquare, predecessorSquares, moverWhite, predecessorOccupied)) {
+                    continue;
+                }
+                int predecessor = table.indexOf(predecessorSquares, moverWhite);
+                // a mirror image of an earlier one is the same position, initialize counted the move once
+                if (!contains(predecessors, predecessorCount, predecessor)) {
+                    predecessors[predecessorCount++] = predecessor;
+                    update(predecessor, ply);
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] indices, int count, int index) {
+        for (int i = 0; i < count; i++) {
+            if (indices[i] == index) return true;
+        }
+        return false;
+    }
+
+    // a position with a move into one decided at ply
+    private void update(int index, int ply) {
+        if (values[index] != 0) {
+            return;
+        }
+        if ((ply & 1) == 0) {
+            // the move leaves the opponent lost
+            values[index] = (byte) (ply + 2);
+            setLastPly(ply + 1);
+            return;
+        }
+        int left = (remaining[index] & 0xFF) - 1;
+        if (left < 0) {
+            throw new IllegalStateException(table.name + ": more moves taken back than counted at " + index);
+        }
+        remaining[index] = (byte) left;
+        if (left == 0 && externalWin[index] == 0 && (externalLoss[index] & 0xFF) != DRAWING_MOVE) {
+            // every move loses, this is the slowest of them
+            int value = Math.max(ply + 2, externalLoss[index] & 0xFF);
+            values[index] = (byte) value;
+            setLastPly(value - 1);
+        }
+    }
+
+    private void setLastPly(int ply) {
+        if (ply > MAX_PLIES) {
+            throw new IllegalStateException(table.name + ": mate longer than " + MAX_PLIES + " plies");
+        }
+        lastPly = Math.max(lastPly, ply);
+    }
+
+    // squares the piece on square could have come from without capturing (the reverse of its quiet moves)
+    private static long getOrigins(int piece, boolean white, int square, long occupied) {
+        switch (piece) {
+            case 0:
+                return kingAttackMasks[square] & ~occupied;
+            case 4:
+                return knightAttackMasks[square] & ~occupied;
+            case 5: {
+                // white pawns move towards pos 0, back from the second rank would be the first
+                int back = white ? square + 8 : square - 8;
+                if (back < 8 || back >= 56 || (occupied & startingBitBoards[back]) != 0) return 0;
+                long origins = startingBitBoards[back];
+                int doubleBack = white ? square + 16 : square - 16;
+                boolean fourthRank = white ? square / 8 == 4 : square / 8 == 3;
+                if (fourthRank && (occupied & startingBitBoards[doubleBack]) == 0) {
+                    origins |= startingBitBoards[doubleBack];
+                }
+                return origins;
+            }
+            default:
+                return ChessBoard.precompute.getSlidingMagicAttack(square, occupied, piece) & ~occupied;
+        }
+    }
+
+    // is target attacked by the byWhite pieces on squares
+    private boolean isAttacked(int target, int[] squares, boolean byWhite, long occupied) {
+        long targetBitBoard = startingBitBoards[target];
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (table.slotWhite[slot] != byWhite) continue;
+            int square = squares[slot];
+            long attacks;
+            switch (table.slotPieces[slot]) {
+                case 0: attacks = kingAttackMasks[square]; break;
+                case 4: attacks = knightAttackMasks[square]; break;
+                case 5: attacks = byWhite ? whitePawnAttackMasks[square] : blackPawnAttackMasks[square]; break;
+                default: attacks = ChessBoard.precompute.getSlidingMagicAttack(square, occupied, table.slotPieces[slot]);
+            }
+            if ((attacks & targetBitBoard) != 0) return true;
+        }
+        return false;
+    }
+
+    // squares of the slots, false if the index isn't a position of the ending (two pieces on a square,
+    // a pawn on the first or last rank) or isn't the index of its position (see Tablebase.Table.indexOf)
+    private boolean decode(int index, int[] squares) {
+        table.getSquares(index, squares);
+        long occupied = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long square = startingBitBoards[squares[slot]];
+            if ((occupied & square) != 0) return false;
+            occupied |= square;
+            if (table.slotPieces[slot] == 5 && (squares[slot] < 8 || squares[slot] >= 56)) return false;
+        }
+        System.arraycopy(squares, 0, decodedSquares, 0, slotCount);
+        return table.indexOf(decodedSquares, (index & 1) == 0) == index;
+    }
+}
@@ -0,0 +1,141 @@
+package engine;
+
+import java.util.Arrays;
+
+import static engine.MoveEncoding.COMPACT_MASK;
+import static engine.MoveEncoding.NO_MOVE;
+
+// Transposition table stored as two parallel long arrays, no objects per entry.
+// Entries are grouped into buckets of BUCKET_SIZE that share an index (low bits of the key),
+// so a new position only has to evict the least useful entry of its bucket.
+//
+// data word layout (64 bits):
+//   0-31  score
+//   32-47 best move (MoveEncoding.getCompact, 0xFFFF = none, store maps getCompact(NO_MOVE) = 0x7FFF to none)
+//   48-55 remaining search depth
+//   56-57 flag (TT_EXACT, TT_ALPHA or TT_BETA, 0 = empty slot)
+//   58-63 generation of the search that stored it
+//
+// The table is shared by the Lazy SMP search threads without locking. Each slot stores
+// key ^ data instead of the key, so a slot whose two words were written by different threads
+// (a torn entry) fails the key check on probe and reads as a miss instead of returning bad data.
+public class TranspositionTable {
+    // flags, 0 is reserved so an all zero data word is an empty slot
+    public static final int TT_EXACT = 1;
+    public static final int TT_ALPHA = 2; // score is an upper bound
+    public static final int TT_BETA  = 3; // score is a lower bound
+
+    public static final long MISS = 0;
+
+    private static final int BUCKET_SIZE = 4; // entries per bucket, must be a power of two
+    private static final int ENTRY_BYTES = 16; // one key word and one data word
+    private static final int GENERATION_MASK = 0x3F;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int bucketMask;
+    private int generation = 0;
+
+    public TranspositionTable(int sizeMB) {
+        if (sizeMB <= 0) throw new IllegalArgumentException("Transposition table size must be positive");
+        long entries = ((long) sizeMB * 1024 * 1024) / ENTRY_BYTES;
+        // round down to a power of two so the bucket index is a mask
+        long buckets = Long.highestOneBit(Math.max(1, entries / BUCKET_SIZE));
+        // java arrays are int indexed, cap at 2^30 entries (16GB)
+        buckets = Math.min(buckets, (1L << 30) / BUCKET_SIZE);
+        keys = new long[(int) buckets * BUCKET_SIZE];
+        data = new long[(int) buckets * BUCKET_SIZE];
+        bucketMask = (int) buckets - 1;
+    }
+
+    public int getEntryCount() {
+        return keys.length;
+    }
+
+    // call once per search so entries from previous searches become preferred victims
+    public void newSearch() {
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        generation = 0;
+    }
+
+    // returns the packed data word of the entry for key, or MISS
+    public long probe(long key) {
+        int bucket = (int) key & bucketMask;
+        int start = bucket * BUCKET_SIZE;
+        for (int i = start; i < start + BUCKET_SIZE; i++) {
+            long entry = data[i]; // read once, another thread may be writing this slot
+            if ((keys[i] ^ entry) == key && entry != MISS) {
+                return entry;
+            }
+        }
+        return MISS;
+    }
+
+    // bestMove is MoveEncoding.getCompact of the move, getCompact(NO_MOVE) and NO_MOVE both mean none
+    public void store(long key, int depth, int flag, int score, int bestMove) {
+        if ((bestMove & COMPACT_MASK) == COMPACT_MASK) {
+            bestMove = NO_MOVE;
+        }
+        int bucket = (int) key & bucketMask;
+        int start = bucket * BUCKET_SIZE;
+        int replaceIndex = start;
+        int replaceValue = Integer.MAX_VALUE;
+        for (int i = start; i < start + BUCKET_SIZE; i++) {
+            long entry = data[i];
+            boolean sameKey = (keys[i] ^ entry) == key;
+            if (entry == MISS || sameKey) {
+                // same position, keep the old best move if this search didn't find one
+                if (bestMove == NO_MOVE && sameKey && entry != MISS) {
+                    bestMove = getMove(entry);
+                }
+                replaceIndex = i;
+                break;
+            }
+            // prefer replacing shallow entries and entries left over from older searches
+            int age = (generation - getGeneration(entry)) & GENERATION_MASK;
+            int value = getDepth(entry) - 8 * age;
+            if (value < replaceValue) {
+                replaceValue = value;
+                replaceIndex = i;
+            }
+        }
+        long entry = pack(depth, flag, score, bestMove, generation);
+        keys[replaceIndex] = key ^ entry;
+        data[replaceIndex] = entry;
+    }
+
+    private static long pack(int depth, int flag, int score, int bestMove, int generation) {
+        return (score & 0xFFFFFFFFL)
+                | ((long) (bestMove & 0xFFFF) << 32)
+                | ((long) Math.min(depth, 0xFF) << 48)
+                | ((long) flag << 56)
+                | ((long) generation << 58);
+    }
+
+    // accessors for a data word returned from probe
+    public static int getScore(long entry) {
+        return (int) entry;
+    }
+
+    public static int getMove(long entry) {
+        int move = (int) (entry >>> 32) & 0xFFFF;
+        return move == 0xFFFF ? NO_MOVE : move;
+    }
+
+    public static int getDepth(long entry) {
+        return (int) (entry >>> 48) & 0xFF;
+    }
+
+    public static int getFlag(long entry) {
+        return (int) (entry >>> 56) & 0x3;
+    }
+
+    private static int getGeneration(long entry) {
+        return (int) (entry >>> 58) & GENERATION_MASK;
+    }
+}
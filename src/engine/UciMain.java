@@ -0,0 +1,354 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Headless UCI front end, lets tournament managers and scripts run the engine as a process
+// usage: java -cp koala-chess.jar engine.UciMain
+// supports uci, isready, ucinewgame, setoption (Hash, Threads, BookFile, TablebasePath, EvalFile),
+// position (startpos/fen + moves), go (depth, movetime, wtime/btime/winc/binc/movestogo, nodes, infinite),
+// stop and quit
+// nothing here touches Swing, the GUI classes and image assets are never loaded
+public class UciMain implements SearchListener {
+    private static final int DEFAULT_HASH_MB = 64;
+    private static final int MAX_HASH_MB = 4096;
+    private static final int MAX_THREADS = 256;
+    private static final int DEFAULT_MOVES_TO_GO = 30; // assumed when the GUI doesn't say
+    private static final long MOVE_OVERHEAD_MILLIS = 50; // kept back for process and pipe latency
+
+    private final PrintStream out;
+    private ChessEngine engine;
+    private int hashSizeMB = DEFAULT_HASH_MB;
+    private int threadCount = 1;
+    private ChessBoard board = new ChessBoard();
+    private PolyglotBook openingBook; // from BookFile, a Polyglot .bin book
+    private Tablebase tablebase; // the .ktb files in TablebasePath, see TablebaseGenerator
+    private NnueNetwork network; // from EvalFile, null for the classical eval
+
+    private Future<Move> search; // last search started by go, null before the first
+    private boolean infinite; // go infinite: bestmove waits for stop even if the search ends early
+    private boolean stopReceived;
+    private String heldBestMove;
+
+    public UciMain(PrintStream out) {
+        this.out = out;
+        engine = createEngine();
+    }
+
+    public static void main(String[] args) throws IOException {
+        // the engine's progress prints go to stderr, stdout only carries the protocol
+        PrintStream protocolOut = System.out;
+        System.setOut(System.err);
+        UciMain uci = new UciMain(protocolOut);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!uci.handleCommand(line.trim())) {
+                break;
+            }
+        }
+        uci.stopSearch();
+    }
+
+    // returns false once the engine should exit
+    public boolean handleCommand(String line) {
+        String[] tokens = line.split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                send("id name Koala Chess");
+                send("id author khoiddinh");
+                send("option name Hash type spin default " + DEFAULT_HASH_MB + " min 1 max " + MAX_HASH_MB);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("option name EvalFile type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "ucinewgame":
+                stopSearch();
+                engine.clearTranspositionTable();
+                break;
+            case "setoption":
+                stopSearch();
+                setOption(tokens);
+                break;
+            case "position":
+                stopSearch();
+                setPosition(tokens);
+                break;
+            case "go":
+                stopSearch();
+                go(tokens);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "quit":
+                return false;
+            default:
+                if (!tokens[0].isEmpty()) {
+                    send("info string unknown command " + tokens[0]);
+                }
+        }
+        return true;
+    }
+
+    private ChessEngine createEngine() {
+        ChessEngine newEngine = new ChessEngine(hashSizeMB, threadCount);
+        newEngine.setSearchListener(this);
+        newEngine.setOpeningBook(openingBook);
+        newEngine.setTablebase(tablebase);
+        setEvaluator(newEngine);
+        return newEngine;
+    }
+
+    // setoption name <name> value <value>, the value is the rest of the line (file names can have spaces)
+    private void setOption(String[] tokens) {
+        String name = "";
+        String value = "";
+        for (int i = 1; i < tokens.length - 1; i++) {
+            if (tokens[i].equals("name")) name = tokens[i + 1];
+            if (tokens[i].equals("value")) {
+                value = String.join(" ", Arrays.copyOfRange(tokens, i + 1, tokens.length));
+                break;
+            }
+        }
+        try {
+            if (name.equalsIgnoreCase("Hash")) {
+                hashSizeMB = Math.max(1, Math.min(MAX_HASH_MB, Integer.parseInt(value)));
+                engine.setHashSize(hashSizeMB); // in place, a new engine would leave the old one's threads behind
+            } else if (name.equalsIgnoreCase("Threads")) {
+                threadCount = Math.max(1, Math.min(MAX_THREADS, Integer.parseInt(value)));
+                engine.setThreadCount(threadCount);
+            } else if (name.equalsIgnoreCase("BookFile")) {
+                loadOpeningBook(value.equals("<empty>") ? "" : value);
+            } else if (name.equalsIgnoreCase("TablebasePath")) {
+                loadTablebase(value.equals("<empty>") ? "" : value);
+            } else if (name.equalsIgnoreCase("EvalFile")) {
+                loadNetwork(value.equals("<empty>") ? "" : value);
+            } else {
+                send("info string unknown option " + name);
+            }
+        } catch (NumberFormatException e) {
+            send("info string invalid value " + value + " for " + name);
+        }
+    }
+
+    // an empty path turns the book off
+    private void loadOpeningBook(String path) {
+        openingBook = null;
+        if (!path.isEmpty()) {
+            try {
+                openingBook = PolyglotBook.open(Paths.get(path));
+            } catch (IOException | RuntimeException e) {
+                send("info string could not open book: " + e.getMessage());
+            }
+        }
+        engine.setOpeningBook(openingBook);
+    }
+
+    // an empty path turns the tables off
+    private void loadTablebase(String path) {
+        tablebase = null;
+        if (!path.isEmpty()) {
+            try {
+                tablebase = Tablebase.open(Paths.get(path));
+                send("info string " + tablebase.getTableCount() + " tablebase files loaded");
+            } catch (IOException | RuntimeException e) {
+                send("info string could not open tablebase: " + e.getMessage());
+            }
+        }
+        engine.setTablebase(tablebase);
+    }
+
+    // an empty path goes back to the classical eval
+    private void loadNetwork(String path) {
+        network = null;
+        if (!path.isEmpty()) {
+            try {
+                network = NnueNetwork.load(Paths.get(path));
+            } catch (IOException | RuntimeException e) {
+                send("info string could not open network: " + e.getMessage());
+            }
+        }
+        setEvaluator(engine);
+    }
+
+    private void setEvaluator(ChessEngine target) {
+        NnueNetwork evalNetwork = network;
+        if (evalNetwork == null) {
+            target.setEvaluator(ClassicalEvaluator::new);
+        } else {
+            target.setEvaluator(() -> new NnueEvaluator(evalNetwork));
+        }
+    }
+
+    // position startpos [moves ...] or position fen <fen> [moves ...]
+    private void setPosition(String[] tokens) {
+        int index = 1;
+        ChessBoard newBoard;
+        try {
+            if (tokens.length > 1 && tokens[1].equals("startpos")) {
+                newBoard = new ChessBoard();
+                index = 2;
+            } else if (tokens.length > 1 && tokens[1].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                for (index = 2; index < tokens.length && !tokens[index].equals("moves"); index++) {
+                    fen.append(tokens[index]).append(' ');
+                }
+                newBoard = new ChessBoard(fen.toString().trim());
+            } else {
+                send("info string expected startpos or fen");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            send("info string " + e.getMessage());
+            return;
+        }
+        if (index < tokens.length && tokens[index].equals("moves")) {
+            for (index++; index < tokens.length; index++) {
+                int move = parseMove(newBoard, tokens[index]);
+                if (move == MoveEncoding.NO_MOVE) {
+                    send("info string illegal move " + tokens[index]);
+                    return;
+                }
+                newBoard.makeMove(move);
+            }
+        }
+        board = newBoard;
+    }
+
+    // long algebraic notation (e2e4, e7e8q, e1g1 for castling) to the legal packed move, NO_MOVE if it isn't one
+    static int parseMove(ChessBoard board, String text) {
+        if (text.length() != 4 && text.length() != 5) return MoveEncoding.NO_MOVE;
+        int promotionPiece = text.length() == 5 ? " qrbn".indexOf(text.charAt(4)) : 0;
+        if (promotionPiece <= 0 && text.length() == 5) return MoveEncoding.NO_MOVE;
+        try {
+            int source = ChessBoard.squareFromName(text.substring(0, 2));
+            int target = ChessBoard.squareFromName(text.substring(2, 4));
+            return board.toLegalMove(source | (target << 6) | (promotionPiece << 12));
+        } catch (IllegalArgumentException e) {
+            return MoveEncoding.NO_MOVE;
+        }
+    }
+
+    private void go(String[] tokens) {
+        int depth = SearchLimits.MAX_DEPTH;
+        long moveTime = SearchLimits.NO_LIMIT;
+        long nodes = SearchLimits.NO_LIMIT;
+        long timeLeft = SearchLimits.NO_LIMIT;
+        long increment = 0;
+        int movesToGo = DEFAULT_MOVES_TO_GO;
+        boolean isInfinite = false;
+        boolean white = board.isWhiteTurn();
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                String value = i + 1 < tokens.length ? tokens[i + 1] : "0";
+                switch (tokens[i]) {
+                    case "depth": depth = Math.max(1, Integer.parseInt(value)); i++; break;
+                    case "movetime": moveTime = Long.parseLong(value); i++; break;
+                    case "nodes": nodes = Long.parseLong(value); i++; break;
+                    case "wtime": if (white) timeLeft = Long.parseLong(value); i++; break;
+                    case "btime": if (!white) timeLeft = Long.parseLong(value); i++; break;
+                    case "winc": if (white) increment = Long.parseLong(value); i++; break;
+                    case "binc": if (!white) increment = Long.parseLong(value); i++; break;
+                    case "movestogo": movesToGo = Math.max(1, Integer.parseInt(value)); i++; break;
+                    case "infinite": isInfinite = true; break;
+                    default: break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            send("info string invalid go command");
+            return;
+        }
+        // clock: an even share of the remaining time plus most of the increment, never all of it
+        if (moveTime == SearchLimits.NO_LIMIT && timeLeft != SearchLimits.NO_LIMIT) {
+            long available = Math.max(1, timeLeft - MOVE_OVERHEAD_MILLIS);
+            moveTime = Math.min(available, timeLeft / movesToGo + increment * 3 / 4);
+        } else if (moveTime != SearchLimits.NO_LIMIT) {
+            moveTime = Math.max(1, moveTime - MOVE_OVERHEAD_MILLIS);
+        }
+
+        synchronized (this) {
+            infinite = isInfinite;
+            stopReceived = false;
+            heldBestMove = null;
+        }
+        engine.nodesSearched = 0;
+        search = engine.startSearch(board, new SearchLimits(depth, moveTime, nodes));
+    }
+
+    // stop: the search finishes its current work and reports bestmove as usual
+    private void stop() {
+        String bestMove;
+        synchronized (this) {
+            stopReceived = true;
+            bestMove = heldBestMove;
+            heldBestMove = null;
+        }
+        if (bestMove != null) {
+            send(bestMove);
+        } else {
+            engine.stop();
+        }
+    }
+
+    // stops a running search and waits for its bestmove, commands that change state need it idle
+    private void stopSearch() {
+        if (search == null) return;
+        stop();
+        try {
+            search.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            send("info string search failed: " + e.getCause());
+        }
+        search = null;
+    }
+
+    @Override
+    public void iterationCompleted(SearchProgress progress) {
+        int mateIn = progress.getMateIn();
+        String score = mateIn != 0 ? "mate " + mateIn : "cp " + progress.score;
+        send("info depth " + progress.depth + " score " + score + " nodes " + progress.nodes
+                + " nps " + progress.getNodesPerSecond() + " time " + progress.timeMillis
+                + " pv " + progress.getPrincipalVariationString());
+    }
+
+    @Override
+    public void searchFinished(Move bestMove) {
+        String result;
+        if (bestMove == null) {
+            result = "bestmove 0000";
+        } else {
+            int[] principalVariation = engine.getPrincipalVariation();
+            result = "bestmove " + MoveEncoding.toAlgebraic(MoveEncoding.encode(bestMove));
+            if (principalVariation.length > 1) {
+                result += " ponder " + MoveEncoding.toAlgebraic(principalVariation[1]);
+            }
+        }
+        synchronized (this) {
+            // go infinite must not answer before stop
+            if (infinite && !stopReceived) {
+                heldBestMove = result;
+                return;
+            }
+        }
+        send(result);
+    }
+
+    private synchronized void send(String message) {
+        out.println(message);
+        out.flush();
+    }
+}
@@ -0,0 +1,95 @@
+package engine;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// NnueKernels on the Vector API, as wide as the CPU allows, with scalar loops for the leftover lanes
+// only loaded through NnueKernels.create, when the jdk.incubator.vector module is there
+class VectorNnueKernels implements NnueKernels {
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(short[] accumulator, int offset, short[] weights, int weightOffset, int size) {
+        int i = 0;
+        for (int end = SHORTS.loopBound(size); i < end; i += SHORTS.length()) {
+            ShortVector.fromArray(SHORTS, accumulator, offset + i)
+                    .add(ShortVector.fromArray(SHORTS, weights, weightOffset + i))
+                    .intoArray(accumulator, offset + i);
+        }
+        for (; i < size; i++) {
+            accumulator[offset + i] += weights[weightOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(short[] accumulator, int offset, short[] weights, int weightOffset, int size) {
+        int i = 0;
+        for (int end = SHORTS.loopBound(size); i < end; i += SHORTS.length()) {
+            ShortVector.fromArray(SHORTS, accumulator, offset + i)
+                    .sub(ShortVector.fromArray(SHORTS, weights, weightOffset + i))
+                    .intoArray(accumulator, offset + i);
+        }
+        for (; i < size; i++) {
+            accumulator[offset + i] -= weights[weightOffset + i];
+        }
+    }
+
+    // four rows at a time share each input load and keep four independent sums in flight, one row at a time
+    // waits on the latency of every multiply-add
+    @Override
+    public void dense(int[] input, int[] weights, int[] biases, int[] output) {
+        int size = input.length;
+        int end = INTS.loopBound(size);
+        int j = 0;
+        for (; j + 4 <= output.length; j += 4) {
+            int row0 = j * size;
+            int row1 = row0 + size;
+            int row2 = row1 + size;
+            int row3 = row2 + size;
+            IntVector sums0 = IntVector.zero(INTS);
+            IntVector sums1 = sums0;
+            IntVector sums2 = sums0;
+            IntVector sums3 = sums0;
+            int i = 0;
+            for (; i < end; i += INTS.length()) {
+                IntVector x = IntVector.fromArray(INTS, input, i);
+                sums0 = IntVector.fromArray(INTS, weights, row0 + i).mul(x).add(sums0);
+                sums1 = IntVector.fromArray(INTS, weights, row1 + i).mul(x).add(sums1);
+                sums2 = IntVector.fromArray(INTS, weights, row2 + i).mul(x).add(sums2);
+                sums3 = IntVector.fromArray(INTS, weights, row3 + i).mul(x).add(sums3);
+            }
+            int sum0 = biases[j] + sums0.reduceLanes(VectorOperators.ADD);
+            int sum1 = biases[j + 1] + sums1.reduceLanes(VectorOperators.ADD);
+            int sum2 = biases[j + 2] + sums2.reduceLanes(VectorOperators.ADD);
+            int sum3 = biases[j + 3] + sums3.reduceLanes(VectorOperators.ADD);
+            for (; i < size; i++) {
+                sum0 += weights[row0 + i] * input[i];
+                sum1 += weights[row1 + i] * input[i];
+                sum2 += weights[row2 + i] * input[i];
+                sum3 += weights[row3 + i] * input[i];
+            }
+            output[j] = sum0;
+            output[j + 1] = sum1;
+            output[j + 2] = sum2;
+            output[j + 3] = sum3;
+        }
+        for (; j < output.length; j++) {
+            int row = j * size;
+            IntVector sums = IntVector.zero(INTS);
+            int i = 0;
+            for (; i < end; i += INTS.length()) {
+                sums = IntVector.fromArray(INTS, weights, row + i)
+                        .mul(IntVector.fromArray(INTS, input, i))
+                        .add(sums);
+            }
+            int sum = biases[j] + sums.reduceLanes(VectorOperators.ADD);
+            for (; i < size; i++) {
+                sum += weights[row + i] * input[i];
+            }
+            output[j] = sum;
+        }
+    }
+}
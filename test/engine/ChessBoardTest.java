@@ -1,10 +1,7 @@
 package engine;
-import chess.engine.CastleState;
-import chess.engine.ChessBoard;
 
-import chess.engine.Move;
 import org.junit.jupiter.api.*;
-import static chess.engine.BitBoardFunctions.orBitBoardArray;
+import static engine.BitBoardFunctions.orBitBoardArray;
 
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -151,5 +148,93 @@ class ChessBoardTest {
         }
     }
 
+    @Test
+    public void testStalemateForBothSides() {
+        assertEquals(2, new ChessBoard("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1").checkWinner(0));
+        assertEquals(2, new ChessBoard("8/8/8/8/8/6k1/5q2/7K w - - 0 1").checkWinner(0));
+        assertEquals(1, new ChessBoard("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1").checkWinner(0));
+    }
+
+    @Test
+    public void testRepetitionAndFiftyMoveRule() {
+        ChessBoard board = new ChessBoard();
+        String[] shuffle = {"g1f3", "g8f6", "f3g1", "f6g8"};
+        for (int i = 0; i < 8; i++) {
+            assertFalse(board.isThreefoldRepetition());
+            board.makeMove(UciMain.parseMove(board, shuffle[i % 4]));
+            assertEquals(i >= 3, board.isRepetition(), "after " + (i + 1) + " plies");
+        }
+        assertTrue(board.isThreefoldRepetition());
+        assertEquals(2, board.checkWinner(board.getLegalPossibleMoves()));
+        board.undoLastMove();
+        assertFalse(board.isThreefoldRepetition());
+
+        // a pawn move resets the clock, nothing before it can repeat
+        board.makeMove(UciMain.parseMove(board, "e7e5"));
+        assertEquals(0, board.getHalfmoveClock());
+        assertFalse(board.isRepetition());
+
+        board.loadFen("4k3/8/8/8/8/8/8/R3K3 w - - 99 80");
+        assertFalse(board.isFiftyMoveDraw());
+        board.makeMove(UciMain.parseMove(board, "a1a2"));
+        assertTrue(board.isFiftyMoveDraw());
+        board.undoLastMove();
+        board.makeMove(UciMain.parseMove(board, "e1e2"));
+        board.undoLastMove();
+        assertEquals(99, board.getHalfmoveClock());
+    }
+
+    @Test
+    public void testInsufficientMaterial() {
+        assertTrue(new ChessBoard("4k3/8/8/8/8/8/8/4K3 w - - 0 1").isInsufficientMaterial());
+        assertTrue(new ChessBoard("4k3/8/8/8/8/8/8/2N1K3 w - - 0 1").isInsufficientMaterial());
+        assertTrue(new ChessBoard("2b1k3/8/8/8/8/8/8/4KB2 w - - 0 1").isInsufficientMaterial()); // both on light squares
+        assertFalse(new ChessBoard("1b2k3/8/8/8/8/8/8/4KB2 w - - 0 1").isInsufficientMaterial());
+        assertFalse(new ChessBoard("4k3/8/8/8/8/8/8/1NN1K3 w - - 0 1").isInsufficientMaterial());
+        assertFalse(new ChessBoard("4k3/8/8/8/8/8/4P3/4K3 w - - 0 1").isInsufficientMaterial());
+    }
+
+    @Test
+    public void testToFen() {
+        for (String[] position : PerftSuite.POSITIONS) {
+            assertEquals(position[1], new ChessBoard(position[1]).toFen());
+        }
+        ChessBoard board = new ChessBoard();
+        assertEquals(ChessBoard.STARTING_FEN, board.toFen());
+        board.makeMove(UciMain.parseMove(board, "e2e4"));
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", board.toFen());
+        board.makeMove(UciMain.parseMove(board, "g8f6"));
+        assertEquals("rnbqkb1r/pppppppp/5n2/8/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 1 2", board.toFen());
+        board.makeMove(UciMain.parseMove(board, "e1e2"));
+        assertEquals("rnbqkb1r/pppppppp/5n2/8/4P3/8/PPPPKPPP/RNBQ1BNR b kq - 2 2", board.toFen());
+
+        // a round trip keeps the zobrist key, so the en passant square and castle rights survive
+        String fen = board.toFen();
+        assertEquals(board.getZobristKey(), new ChessBoard(fen).getZobristKey());
+    }
+
+    @Test
+    public void testLoadInvalidFen() {
+        String[] fens = {
+                "4k3/8/8/8/8/8/8/4K3 x - -", // side to move
+                "4k3/8/8/8/8/8/8/4K3 w KQkq -", // castle rights without rooks
+                "r3k2r/8/8/8/8/8/8/R4K1R w K -", // or without the king on e1
+                "4k3/8/8/8/8/8/8/4K3 w Z -",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e3", // en passant with white to move
+                "rnbqkbnr/pppp1ppp/8/4p3/8/8/PPPPPPPP/RNBQKBNR b KQkq e6", // and with black to move
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq d6", // no pawn in front of it
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e",
+        };
+        for (String fen : fens) {
+            assertThrows(IllegalArgumentException.class, () -> new ChessBoard(fen), fen);
+        }
+        // the same rights and squares where the pieces allow them
+        assertEquals("r3k3/8/8/8/8/8/8/4K2R w Kq - 0 1", new ChessBoard("r3k3/8/8/8/8/8/8/4K2R w Kq -").toFen());
+        assertEquals("rnbqkbnr/pppp1ppp/8/4p3/8/8/PPPPPPPP/RNBQKBNR w KQkq e6 0 1",
+                new ChessBoard("rnbqkbnr/pppp1ppp/8/4p3/8/8/PPPPPPPP/RNBQKBNR w KQkq e6").toFen());
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+                new ChessBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3").toFen());
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,431 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChessEngineTest {
+    private static final String KIWIPETE_FEN = PerftSuite.POSITIONS[1][1];
+
+    // every iteration and finished search the engine reports, in order
+    private static class RecordingListener implements SearchListener {
+        final List<SearchProgress> iterations = new ArrayList<>();
+        final List<Move> finishedMoves = new ArrayList<>();
+        final List<Integer> iterationsBeforeFinish = new ArrayList<>();
+        final CountDownLatch firstIteration = new CountDownLatch(1);
+
+        @Override
+        public synchronized void iterationCompleted(SearchProgress progress) {
+            iterations.add(progress);
+            firstIteration.countDown();
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void searchFinished(Move bestMove) {
+            finishedMoves.add(bestMove);
+            iterationsBeforeFinish.add(iterations.size());
+        }
+
+        synchronized SearchProgress last() {
+            return iterations.get(iterations.size() - 1);
+        }
+
+        // waits for an iteration that reports more than the given depth or nodes
+        synchronized SearchProgress awaitIteration(int depth, long nodes) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (iterations.isEmpty() || last().depth < depth || last().nodes < nodes) {
+                long wait = deadline - System.currentTimeMillis();
+                assertTrue(wait > 0);
+                wait(wait);
+            }
+            return last();
+        }
+
+        void awaitFirstIteration() throws InterruptedException {
+            assertTrue(firstIteration.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // the legal packed move with long algebraic name, e.g. "e2e4"
+    private static int findMove(ChessBoard board, String name) {
+        int[] moves = new int[ChessBoard.MAX_MOVES];
+        int moveCount = board.generateLegalMoves(moves);
+        for (int i = 0; i < moveCount; i++) {
+            if (MoveEncoding.toAlgebraic(moves[i]).equals(name)) {
+                return moves[i];
+            }
+        }
+        throw new AssertionError(name + " is not legal");
+    }
+
+    private static void assertSameMove(int expected, Move actual) {
+        assertNotNull(actual);
+        assertEquals(MoveEncoding.toAlgebraic(expected), MoveEncoding.toAlgebraic(MoveEncoding.encode(actual)));
+    }
+
+    @Test
+    public void testTimeLimit() {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        long startTime = System.currentTimeMillis();
+        Move move = engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.time(300));
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        assertTrue(elapsed < 2000, elapsed + " ms");
+        assertTrue(engine.completedDepth >= 1 && engine.completedDepth < SearchLimits.MAX_DEPTH);
+        // the move comes from the last completed iteration, the aborted one is thrown away
+        assertEquals(engine.completedDepth, listener.last().depth);
+        assertSameMove(listener.last().principalVariation[0], move);
+        assertEquals(listener.last().principalVariation[0], engine.getPrincipalVariation()[0]);
+    }
+
+    @Test
+    public void testNodeLimit() {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        long nodeLimit = 20_000;
+        Move move = engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.nodes(nodeLimit));
+
+        // the limit is checked every 2048 nodes
+        assertTrue(engine.nodesSearched <= nodeLimit + 2048, engine.nodesSearched + " nodes");
+        assertTrue(engine.completedDepth >= 1 && engine.completedDepth < SearchLimits.MAX_DEPTH);
+        assertEquals(engine.completedDepth, listener.last().depth);
+        assertSameMove(listener.last().principalVariation[0], move);
+
+        // the limit counts from the start of each search, not from the engine's first one
+        long nodesBefore = engine.nodesSearched;
+        engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.nodes(nodeLimit));
+        assertTrue(engine.nodesSearched - nodesBefore <= nodeLimit + 2048);
+        assertTrue(engine.nodesSearched - nodesBefore > 0);
+    }
+
+    // an unlimited search ends on stop() and still delivers its move, after its last iteration
+    @Test
+    public void testStopInfiniteSearch() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        Future<Move> future = engine.startSearch(new ChessBoard(KIWIPETE_FEN));
+        listener.awaitFirstIteration();
+        assertFalse(future.isDone());
+        engine.stop();
+        Move move = future.get(); // searchFinished comes before get() returns
+
+        synchronized (listener) {
+            assertEquals(1, listener.finishedMoves.size());
+            assertSame(move, listener.finishedMoves.get(0));
+            assertEquals(listener.iterations.size(), (int) listener.iterationsBeforeFinish.get(0));
+            assertSameMove(listener.last().principalVariation[0], move);
+        }
+        assertTrue(engine.completedDepth < SearchLimits.MAX_DEPTH);
+    }
+
+    // cancelling the future of an unlimited search ends it without a move for the listener
+    @Test
+    public void testCancelInfiniteSearch() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        Future<Move> future = engine.startSearch(new ChessBoard(KIWIPETE_FEN));
+        listener.awaitFirstIteration();
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled() && future.isDone());
+
+        // searches run one at a time, so once the next one is done the cancelled one has ended
+        Move move = engine.startSearch(new ChessBoard(), SearchLimits.depth(1)).get();
+        synchronized (listener) {
+            assertEquals(1, listener.finishedMoves.size());
+            assertSame(move, listener.finishedMoves.get(0));
+            assertEquals(1, listener.last().depth);
+            assertEquals(listener.iterations.size(), (int) listener.iterationsBeforeFinish.get(0));
+        }
+    }
+
+    // the position after the move the ponder search expects, what a normal search would get
+    private static ChessBoard afterMove(String fen, String move) {
+        ChessBoard board = new ChessBoard(fen);
+        board.makeMove(findMove(board, move));
+        return board;
+    }
+
+    // the opponent plays the expected move while the ponder search runs: it ignores its time
+    // limit until then, and the limit counts from the hit
+    @Test
+    public void testPonderHitTimeLimit() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        ChessBoard board = new ChessBoard(KIWIPETE_FEN);
+        Future<Move> future = engine.startPonder(board, findMove(board, "e2a6"), SearchLimits.time(300));
+        assertTrue(engine.isPondering());
+        Thread.sleep(600);
+        assertFalse(future.isDone());
+
+        long hitTime = System.currentTimeMillis();
+        engine.ponderHit();
+        assertFalse(engine.isPondering());
+        Move move = future.get(5, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - hitTime;
+        assertTrue(elapsed >= 300 && elapsed < 3000, elapsed + " ms");
+        synchronized (listener) {
+            assertEquals(1, listener.finishedMoves.size());
+            assertSame(move, listener.finishedMoves.get(0));
+            assertSameMove(listener.last().principalVariation[0], move);
+        }
+        // the move is a reply in the position after the expected move
+        findMove(afterMove(KIWIPETE_FEN, "e2a6"), MoveEncoding.toAlgebraic(MoveEncoding.encode(move)));
+    }
+
+    // the node limit is ignored while pondering and counts from the hit
+    @Test
+    public void testPonderHitNodeLimit() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        ChessBoard board = new ChessBoard(KIWIPETE_FEN);
+        long nodeLimit = 50_000;
+        Future<Move> future = engine.startPonder(board, findMove(board, "e2a6"), SearchLimits.nodes(nodeLimit));
+        long nodesBeforeHit = listener.awaitIteration(1, 2 * nodeLimit).nodes;
+        assertFalse(future.isDone());
+
+        engine.ponderHit();
+        future.get(10, TimeUnit.SECONDS);
+        assertTrue(engine.nodesSearched >= nodesBeforeHit + nodeLimit, engine.nodesSearched + " nodes");
+    }
+
+    // a ponder search that is done before the opponent moves holds its move back until the hit
+    @Test
+    public void testPonderFinishesBeforeHit() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        ChessBoard board = new ChessBoard();
+        Future<Move> future = engine.startPonder(board, findMove(board, "e2e4"), SearchLimits.depth(3));
+        listener.awaitIteration(3, 0);
+        Thread.sleep(100);
+        assertFalse(future.isDone());
+        synchronized (listener) {
+            assertTrue(listener.finishedMoves.isEmpty());
+        }
+
+        engine.ponderHit();
+        Move move = future.get(5, TimeUnit.SECONDS);
+        assertEquals(3, engine.completedDepth);
+        assertFalse(engine.isPondering());
+        synchronized (listener) {
+            assertEquals(1, listener.finishedMoves.size());
+            assertSame(move, listener.finishedMoves.get(0));
+            assertEquals(3, listener.last().depth);
+        }
+    }
+
+    // the opponent plays something else: the ponder search is cancelled without a move for the
+    // listener and a normal search of the real position follows
+    @Test
+    public void testPonderMiss() throws Exception {
+        ChessEngine engine = new ChessEngine(16);
+        RecordingListener listener = new RecordingListener();
+        engine.setSearchListener(listener);
+        ChessBoard board = new ChessBoard(KIWIPETE_FEN);
+        Future<Move> future = engine.startPonder(board, findMove(board, "e2a6"));
+        listener.awaitFirstIteration();
+        assertTrue(future.cancel(true));
+        assertFalse(engine.isPondering());
+
+        ChessBoard actual = afterMove(KIWIPETE_FEN, "d5e6");
+        Move move = engine.startSearch(actual, SearchLimits.depth(4)).get();
+        findMove(actual, MoveEncoding.toAlgebraic(MoveEncoding.encode(move)));
+        assertEquals(4, engine.completedDepth);
+        synchronized (listener) {
+            assertEquals(1, listener.finishedMoves.size());
+            assertSame(move, listener.finishedMoves.get(0));
+        }
+
+        // a ponder search cancelled before it got to run doesn't leave the engine pondering either
+        Future<Move> running = engine.startSearch(new ChessBoard(KIWIPETE_FEN));
+        Future<Move> queued = engine.startPonder(board, findMove(board, "e2a6"));
+        assertTrue(queued.cancel(true));
+        assertFalse(engine.isPondering());
+        running.cancel(true);
+    }
+
+    // the table is resized in place, helpers included, and searches go on as before
+    @Test
+    public void testSetHashSize() {
+        ChessEngine engine = new ChessEngine(16, 2);
+        assertEquals(1 << 20, engine.getHashEntryCount()); // 16 bytes an entry
+        assertNotNull(engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.depth(5)));
+
+        engine.setHashSize(1);
+        assertEquals(1 << 16, engine.getHashEntryCount());
+        assertNotNull(engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.depth(5)));
+        engine.setThreadCount(3);
+        assertEquals(1 << 16, engine.getHashEntryCount());
+        assertNotNull(engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.depth(5)));
+    }
+
+    @Test
+    public void testQuietCutoffUpdatesKillersHistoryAndCounterMove() {
+        ChessEngine engine = new ChessEngine(1);
+        ChessBoard board = new ChessBoard();
+        int knightMove = findMove(board, "g1f3");
+        int pawnMove = findMove(board, "e2e4");
+        board.makeMove(findMove(board, "d2d4"));
+        int previousMove = board.getLastMove();
+        board.undoLastMove();
+
+        engine.updateQuietMoveHeuristics(knightMove, true, 3, 4, previousMove);
+        assertEquals(knightMove, engine.getKillerMove(3, 0));
+        assertEquals(16, engine.getHistoryScore(knightMove, true)); // depth squared
+        assertEquals(0, engine.getHistoryScore(knightMove, false));
+        assertEquals(knightMove, engine.getCounterMove(previousMove));
+        assertTrue(engine.scoreMove(knightMove, true) > engine.scoreMove(findMove(board, "b1a3"), true) + 15);
+
+        // a new killer pushes the old one into the second slot, the same one twice doesn't
+        engine.updateQuietMoveHeuristics(pawnMove, true, 3, 2, MoveEncoding.NO_MOVE);
+        engine.updateQuietMoveHeuristics(pawnMove, true, 3, 2, MoveEncoding.NO_MOVE);
+        assertEquals(pawnMove, engine.getKillerMove(3, 0));
+        assertEquals(knightMove, engine.getKillerMove(3, 1));
+        assertEquals(8, engine.getHistoryScore(pawnMove, true));
+        assertEquals(knightMove, engine.getCounterMove(previousMove));
+    }
+
+    // killers left behind by a real search are quiet moves that cut off, with history to match
+    @Test
+    public void testSearchRecordsKillers() {
+        ChessEngine engine = new ChessEngine(16);
+        engine.getBestMove(new ChessBoard(KIWIPETE_FEN), SearchLimits.depth(5));
+        int killerCount = 0;
+        for (int ply = 0; ply < 5; ply++) {
+            for (int slot = 0; slot < 2; slot++) {
+                int killer = engine.getKillerMove(ply, slot);
+                if (killer != MoveEncoding.NO_MOVE) {
+                    killerCount++;
+                    assertFalse(MoveEncoding.isTactical(killer), MoveEncoding.toAlgebraic(killer));
+                    assertTrue(engine.getHistoryScore(killer, ply % 2 == 0) > 0, MoveEncoding.toAlgebraic(killer));
+                }
+            }
+        }
+        assertTrue(killerCount > 0);
+    }
+
+    @Test
+    public void testMovePickerOrder() {
+        ChessEngine engine = new ChessEngine(1);
+        ChessBoard board = new ChessBoard(KIWIPETE_FEN);
+        int hashMove = findMove(board, "a2a4");
+        int firstKiller = findMove(board, "g2g3");
+        int secondKiller = findMove(board, "a1b1");
+        int counterMove = findMove(board, "e1d1");
+        int illegalKiller = MoveEncoding.encodeQuiet(48, 24, 5); // a2a5
+        int[] expected = new int[ChessBoard.MAX_MOVES];
+        int moveCount = board.generateLegalMoves(expected);
+
+        MovePicker picker = new MovePicker(engine);
+        picker.init(board, true, MoveEncoding.getCompact(hashMove), firstKiller, secondKiller, counterMove);
+        List<Integer> order = new ArrayList<>();
+        int move;
+        while ((move = picker.nextMove()) != MoveEncoding.NO_MOVE) {
+            order.add(move);
+        }
+        assertEquals(moveCount, order.size());
+        assertEquals(moveCount, order.stream().distinct().count());
+        assertEquals(hashMove, (int) order.get(0));
+        int captureCount = board.generateLegalCaptures(new int[ChessBoard.MAX_MOVES]);
+        for (int i = 1; i <= captureCount; i++) {
+            assertTrue(MoveEncoding.isTactical(order.get(i)), MoveEncoding.toAlgebraic(order.get(i)));
+        }
+        // then the killers and the countermove, before every other quiet move
+        assertEquals(firstKiller, (int) order.get(captureCount + 1));
+        assertEquals(secondKiller, (int) order.get(captureCount + 2));
+        assertEquals(counterMove, (int) order.get(captureCount + 3));
+
+        // an illegal killer is skipped, the countermove moves up
+        picker.init(board, true, MoveEncoding.NO_MOVE, illegalKiller, MoveEncoding.NO_MOVE, counterMove);
+        for (int i = 0; i < captureCount; i++) {
+            assertTrue(MoveEncoding.isTactical(picker.nextMove()));
+        }
+        assertEquals(counterMove, picker.nextMove());
+    }
+
+    // the principal variation is a legal line that starts with the returned move, and the aspiration
+    // windows, re-searched whenever the score falls outside them, agree with full window searches
+    @Test
+    public void testPrincipalVariationAndAspirationWindows() {
+        long researches = 0;
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessEngine windowed = new ChessEngine(16);
+            ChessEngine fullWindow = new ChessEngine(16);
+            fullWindow.setAspirationWindows(false);
+            // null moves and reductions depend on the window, with them moves of equal score can swap
+            for (ChessEngine engine : new ChessEngine[]{windowed, fullWindow}) {
+                engine.setNullMovePruning(false);
+                engine.setLateMoveReductions(false);
+            }
+            Move move = windowed.getBestMove(new ChessBoard(position[1]), SearchLimits.depth(6));
+            Move fullWindowMove = fullWindow.getBestMove(new ChessBoard(position[1]), SearchLimits.depth(6));
+            researches += windowed.aspirationResearches;
+            assertEquals(0, fullWindow.aspirationResearches);
+
+            int[] pv = windowed.getPrincipalVariation();
+            assertTrue(pv.length >= 1 && pv.length <= 6, position[0]);
+            assertSameMove(pv[0], move);
+            ChessBoard board = new ChessBoard(position[1]);
+            for (int pvMove : pv) {
+                assertEquals(pvMove, findMove(board, MoveEncoding.toAlgebraic(pvMove)), position[0]);
+                board.makeMove(pvMove);
+            }
+
+            assertSameMove(fullWindow.getPrincipalVariation()[0], move);
+            assertEquals(fullWindow.completedScore, windowed.completedScore, position[0]);
+        }
+        assertTrue(researches > 0); // some position failed high or low
+    }
+
+    // with only kings and pawns null move pruning is off, passing would hide zugzwang, so these
+    // must search exactly like an engine without it (they don't if the guard is removed)
+    @Test
+    public void testNoNullMoveInPawnEndings() {
+        String[] fens = {
+                "8/8/8/8/K7/5pP1/7k/8 w - - 0 1",
+                "2K5/8/8/3k4/8/P2P4/6p1/8 w - - 0 1",
+                "8/K2k4/8/7p/5P2/8/8/8 w - - 0 1",
+        };
+        for (String fen : fens) {
+            assertFalse(new ChessBoard(fen).hasNonPawnMaterial());
+            ChessEngine engine = new ChessEngine(16);
+            ChessEngine noNullMove = new ChessEngine(16);
+            noNullMove.setNullMovePruning(false);
+            Move move = engine.getBestMove(new ChessBoard(fen), SearchLimits.depth(9));
+            noNullMove.getBestMove(new ChessBoard(fen), SearchLimits.depth(9));
+            assertSameMove(noNullMove.getPrincipalVariation()[0], move);
+            assertEquals(noNullMove.completedScore, engine.completedScore, fen);
+        }
+    }
+
+    // null move pruning and late move reductions must not hide these (a back rank mate, Win at Chess 1, 3, 4 and 5)
+    @Test
+    public void testSelectiveSearchFindsTactics() {
+        String[][] positions = {
+                {"6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1", "d1d8"},
+                {"2rr3k/pp3pp1/1nnqbN1p/3pN3/2pP4/2P3Q1/PPB4P/R4RK1 w - - 0 1", "g3g6"},
+                {"5rk1/1ppb3p/p1pb4/6q1/3P1p1r/2P1R2P/PP1BQ1P1/5RKN w - - 0 1", "e3g3"},
+                {"r1bq2rk/pp3pbp/2p1p1pQ/7P/3P4/2PB1N2/PP3PPR/2KR4 w - - 0 1", "h6h7"},
+                {"5k2/6pp/p1qN4/1p1p4/3P4/2PKP2Q/PP3r2/3R4 b - - 0 1", "c6c4"},
+        };
+        for (String[] position : positions) {
+            ChessEngine engine = new ChessEngine(16);
+            Move move = engine.getBestMove(new ChessBoard(position[0]), SearchLimits.depth(6));
+            assertEquals(position[1], MoveEncoding.toAlgebraic(MoveEncoding.encode(move)), position[0]);
+        }
+    }
+}
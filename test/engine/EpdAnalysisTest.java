@@ -0,0 +1,49 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EpdAnalysisTest {
+
+    @Test
+    public void testRun() throws Exception {
+        String input = String.join("\n",
+                "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - bm Rd8#; id \"back rank\";",
+                "",
+                "not a position",
+                ChessBoard.STARTING_FEN,
+                "7k/5Q2/6K1/8/8/8/8/8 b - - id \"stalemate\";",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -",
+                // fields that don't fit the pieces
+                "4k3/8/8/8/8/8/8/4K3 x - - id \"side\";",
+                "4k3/8/8/8/8/8/8/4K3 w KQkq -",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e3");
+        StringWriter output = new StringWriter();
+        EpdAnalysis analysis = new EpdAnalysis(3, 2, 1);
+        try {
+            assertEquals(8, analysis.run(new BufferedReader(new StringReader(input)), output));
+        } finally {
+            analysis.shutdown();
+        }
+
+        // one line per position, in input order
+        String[] lines = output.toString().split("\\R");
+        assertEquals(8, lines.length);
+        assertTrue(lines[0].startsWith("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - bm d1d8; dm 1; acd 1; acn "));
+        assertTrue(lines[0].endsWith(" pv d1d8; id \"back rank\";"));
+        assertEquals("not a position c0 \"invalid EPD\";", lines[1]);
+        assertTrue(lines[2].startsWith("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - bm "));
+        assertTrue(lines[2].contains(" acd 3;"));
+        assertEquals("7k/5Q2/6K1/8/8/8/8/8 b - - c0 \"stalemate\"; id \"stalemate\";", lines[3]);
+        assertTrue(lines[4].startsWith("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - bm "));
+        assertEquals("4k3/8/8/8/8/8/8/4K3 x - - c0 \"Invalid FEN: 4k3/8/8/8/8/8/8/4K3 x - -\"; id \"side\";", lines[5]);
+        assertEquals("4k3/8/8/8/8/8/8/4K3 w KQkq - c0 \"Invalid FEN: 4k3/8/8/8/8/8/8/4K3 w KQkq -\";", lines[6]);
+        assertEquals("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e3 c0 "
+                + "\"Invalid FEN: rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e3\";", lines[7]);
+    }
+}
@@ -1,11 +1,9 @@
 package engine;
 
-import chess.engine.ChessBoard;
-import chess.engine.MoveGenerationPrecompute;
 import org.junit.jupiter.api.Test;
 
-import static chess.engine.BitBoardFunctions.orBitBoardArray;
-import static chess.engine.BitBoardFunctions.printBitBoard;
+import static engine.BitBoardFunctions.orBitBoardArray;
+import static engine.BitBoardFunctions.printBitBoard;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -148,4 +146,44 @@ public class MoveGenerationPrecomputeTest {
         long expected = 0b00000000_00000000_00000000_00000000_00000000_00000000_00000001_00000010;
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testMagicMasksSkipEdges() {
+        // rook on a8 doesn't need h8 or a1 as blockers
+        long expectedMask = (LEFT_MASK ^ TOP_MASK) & ~0x0100000000000080L;
+        assertEquals(expectedMask, MoveGenerationPrecompute.rookMagicMasks[0]);
+        assertEquals(12, Long.bitCount(MoveGenerationPrecompute.rookMagicMasks[0]));
+        assertEquals(9, Long.bitCount(MoveGenerationPrecompute.bishopMagicMasks[27])); // d5
+    }
+
+    @Test
+    public void testMagicMatchesRayAttacks() {
+        java.util.Random random = new java.util.Random(1);
+        for (int pos = 0; pos < 64; pos++) {
+            for (int i = 0; i < 200; i++) {
+                long blockers = random.nextLong() & random.nextLong();
+                for (int piece = 1; piece <= 3; piece++) {
+                    assertEquals(MoveGenerationPrecompute.getSlidingAttackWithBlockers(pos, blockers, piece),
+                            tables.getSlidingMagicAttack(pos, blockers, piece),
+                            "Magic attack for piece " + piece + " on " + pos + " is incorrect.");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPextMatchesMagic() {
+        assertEquals(0b1001L, MoveGenerationPrecompute.pext(0b1000_0001_0000L, 0b1010_0011_0000L));
+        MoveGenerationPrecompute.generatePextBitBoards();
+        java.util.Random random = new java.util.Random(2);
+        for (int pos = 0; pos < 64; pos++) {
+            for (int i = 0; i < 200; i++) {
+                long blockers = random.nextLong() & random.nextLong();
+                assertEquals(MoveGenerationPrecompute.getRookAttackMagic(pos, blockers),
+                        MoveGenerationPrecompute.getRookAttackPext(pos, blockers));
+                assertEquals(MoveGenerationPrecompute.getBishopAttackMagic(pos, blockers),
+                        MoveGenerationPrecompute.getBishopAttackPext(pos, blockers));
+            }
+        }
+    }
 }
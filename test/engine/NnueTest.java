@@ -0,0 +1,201 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NnueTest {
+    private static final NnueNetwork NETWORK = NnueNetwork.createRandom(40, 12, 8, 7);
+    private static final String[] FENS = {
+            ChessBoard.STARTING_FEN,
+            PerftSuite.POSITIONS[1][1],
+            "r1bq1rk1/pp2bppp/2n1pn2/3p4/2PP4/2N1PN2/PP3PPP/R2QKB1R w - - 0 9",
+            "8/2k5/3p4/p2P1p2/P2P1P2/8/1K6/8 b - - 0 1",
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        Path file = tempDir.resolve("random.nnue");
+        NETWORK.write(file);
+        NnueNetwork loaded = NnueNetwork.load(file);
+        for (String fen : FENS) {
+            assertEquals(new NnueEvaluator(NETWORK).evaluate(new ChessBoard(fen)),
+                    new NnueEvaluator(loaded).evaluate(new ChessBoard(fen)), fen);
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> NnueNetwork.load(file));
+    }
+
+    // the same forward pass written out the slow way
+    @Test
+    public void testMatchesReference() {
+        NnueEvaluator evaluator = new NnueEvaluator(NETWORK);
+        for (String fen : FENS) {
+            ChessBoard board = new ChessBoard(fen);
+            assertEquals(referenceEvaluate(board), evaluator.evaluate(board), fen);
+            // the colors swapped is the same position for the other side
+            assertEquals(-evaluator.evaluate(board), evaluator.evaluate(new ChessBoard(flipColors(fen))), fen);
+        }
+    }
+
+    // every push, pop and piece delta must leave the sums as if they were computed from scratch
+    @Test
+    public void testIncrementalMatchesRefresh() {
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessBoard board = new ChessBoard(position[1]);
+            new NnueEvaluator(NETWORK).prepare(board);
+            checkAccumulator(board, 3, new int[3][ChessBoard.MAX_MOVES]);
+            // a copy gets its own
+            ChessBoard copy = new ChessBoard(board);
+            assertNotSame(board.getAccumulator(), copy.getAccumulator());
+            assertArrayEquals(board.getAccumulator().getValues(board), copy.getAccumulator().getValues(copy));
+        }
+    }
+
+    private void checkAccumulator(ChessBoard board, int depth, int[][] moveBuffers) {
+        assertArrayEquals(new NnueAccumulator(NETWORK).getValues(board), board.getAccumulator().getValues(board));
+        if (depth == 0) return;
+        if (!board.isInCheck()) {
+            board.makeNullMove();
+            assertArrayEquals(new NnueAccumulator(NETWORK).getValues(board), board.getAccumulator().getValues(board));
+            board.undoNullMove();
+        }
+        int[] moves = moveBuffers[depth - 1];
+        int moveCount = board.generateLegalMoves(moves);
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            checkAccumulator(board, depth - 1, moveBuffers);
+            board.undoLastMove();
+        }
+    }
+
+    @Test
+    public void testUndoPastRefresh() {
+        ChessBoard board = new ChessBoard(PerftSuite.POSITIONS[1][1]);
+        int[] moves = new int[ChessBoard.MAX_MOVES];
+        board.generateLegalMoves(moves);
+        board.makeMove(moves[0]);
+        NnueEvaluator evaluator = new NnueEvaluator(NETWORK);
+        evaluator.evaluate(board); // attached one move in
+        board.undoLastMove();
+        assertEquals(referenceEvaluate(board), evaluator.evaluate(board));
+        board.loadFen(FENS[3]);
+        assertEquals(referenceEvaluate(board), evaluator.evaluate(board));
+    }
+
+    // vector and scalar kernels agree to the bit, the sizes leave tails after the last full vector
+    @Test
+    public void testKernels() {
+        NnueKernels kernels = NnueKernels.create();
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            assertEquals("VectorNnueKernels", kernels.getClass().getSimpleName());
+        }
+        NnueKernels scalar = new ScalarNnueKernels();
+        Random random = new Random(3);
+        int[] input = random.ints(77, 0, 128).toArray();
+        int[] weights = random.ints(77 * 13, -30000, 30000).toArray();
+        int[] biases = random.ints(13).toArray();
+        int[] expected = new int[13];
+        int[] actual = new int[13];
+        scalar.dense(input, weights, biases, expected);
+        kernels.dense(input, weights, biases, actual);
+        assertArrayEquals(expected, actual);
+
+        short[] accumulator = new short[90];
+        short[] featureWeights = new short[200];
+        for (int i = 0; i < featureWeights.length; i++) featureWeights[i] = (short) random.nextInt();
+        short[] expectedAccumulator = accumulator.clone();
+        scalar.add(expectedAccumulator, 3, featureWeights, 100, 83);
+        scalar.subtract(expectedAccumulator, 5, featureWeights, 11, 85);
+        kernels.add(accumulator, 3, featureWeights, 100, 83);
+        kernels.subtract(accumulator, 5, featureWeights, 11, 85);
+        assertArrayEquals(expectedAccumulator, accumulator);
+    }
+
+    @Test
+    public void testEngineSearchesWithNetwork() {
+        ChessEngine engine = new ChessEngine(1, 2);
+        engine.setEvaluator(() -> new NnueEvaluator(NETWORK));
+        assertInstanceOf(NnueEvaluator.class, engine.getEvaluator());
+        ChessBoard board = new ChessBoard(PerftSuite.POSITIONS[1][1]);
+        Move move = engine.getBestMove(board, SearchLimits.depth(3));
+        assertNotNull(move);
+        assertEquals(new ChessBoard(PerftSuite.POSITIONS[1][1]).getZobristKey(), board.getZobristKey());
+        // still finds a mate, whatever the network thinks
+        assertEquals("d1d8", MoveEncoding.toAlgebraic(MoveEncoding.encode(
+                engine.getBestMove(new ChessBoard("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1"), SearchLimits.depth(2)))));
+    }
+
+    private static int referenceEvaluate(ChessBoard board) {
+        int size = NETWORK.accumulatorSize;
+        int[][] sums = new int[2][size];
+        for (int perspective = 0; perspective < 2; perspective++) {
+            for (int i = 0; i < size; i++) sums[perspective][i] = NETWORK.featureBiases[i];
+            for (int color = 0; color < 2; color++) {
+                for (int piece = 0; piece < 6; piece++) {
+                    long bitBoard = color == 0 ? board.whiteBitBoards[piece] : board.blackBitBoards[piece];
+                    for (int pos = 0; pos < 64; pos++) {
+                        if ((bitBoard & (1L << (63 - pos))) == 0) continue;
+                        int square = perspective == 0 ? pos : pos ^ 56;
+                        int feature = (color == perspective ? 0 : 6) + piece;
+                        for (int i = 0; i < size; i++) {
+                            sums[perspective][i] += NETWORK.featureWeights[(feature * 64 + square) * size + i];
+                        }
+                    }
+                }
+            }
+        }
+        int own = board.isWhiteTurn() ? 0 : 1;
+        int[] input = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            input[i] = clip((short) sums[own][i]);
+            input[size + i] = clip((short) sums[1 - own][i]);
+        }
+        int[] hidden1 = layer(input, NETWORK.hidden1Weights, NETWORK.hidden1Biases);
+        int[] hidden2 = layer(hidden1, NETWORK.hidden2Weights, NETWORK.hidden2Biases);
+        int output = NETWORK.outputBias;
+        for (int i = 0; i < hidden2.length; i++) output += NETWORK.outputWeights[i] * hidden2[i];
+        int score = output / NnueNetwork.OUTPUT_SCALE;
+        return board.isWhiteTurn() ? score : -score;
+    }
+
+    private static int[] layer(int[] input, int[] weights, int[] biases) {
+        int[] output = new int[biases.length];
+        for (int j = 0; j < output.length; j++) {
+            int sum = biases[j];
+            for (int i = 0; i < input.length; i++) sum += weights[j * input.length + i] * input[i];
+            output[j] = clip(sum >> NnueNetwork.HIDDEN_SHIFT);
+        }
+        return output;
+    }
+
+    private static int clip(int value) {
+        return Math.max(0, Math.min(127, value));
+    }
+
+    // ranks mirrored, colors and side to move swapped, castling and en passant left out
+    private static String flipColors(String fen) {
+        String[] fields = fen.split(" ");
+        String[] ranks = fields[0].split("/");
+        StringBuilder flipped = new StringBuilder();
+        for (int rank = 7; rank >= 0; rank--) {
+            for (char symbol : ranks[rank].toCharArray()) {
+                flipped.append(Character.isUpperCase(symbol) ? Character.toLowerCase(symbol) : Character.toUpperCase(symbol));
+            }
+            if (rank > 0) flipped.append('/');
+        }
+        return flipped + (fields[1].equals("w") ? " b" : " w") + " - - 0 1";
+    }
+}
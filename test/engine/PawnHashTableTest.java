@@ -0,0 +1,66 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PawnHashTableTest {
+
+    private static long evaluate(String fen) {
+        ChessBoard board = new ChessBoard(fen);
+        return PawnStructure.evaluate(board.whiteBitBoards[5], board.blackBitBoards[5]);
+    }
+
+    @Test
+    public void testPawnStructure() {
+        // a2 and a3: doubled, both isolated, only the front one passed
+        long scores = evaluate("4k3/8/8/8/8/P7/P7/4K3 w - - 0 1");
+        assertEquals(-10 - 2 * 12 + 5, PawnStructure.getOpeningScore(scores));
+        assertEquals(-20 - 2 * 15 + 10, PawnStructure.getEndgameScore(scores));
+        // the same for black is the same score for the other side
+        assertEquals(PawnStructure.pack(29, 40), evaluate("4k3/p7/p7/8/8/8/8/4K3 w - - 0 1"));
+
+        // d5 and c7 stop each other from being passed, only the isolated penalties are left and cancel out
+        assertEquals(PawnStructure.pack(0, 0), evaluate("4k3/2p5/8/3P4/8/8/8/4K3 w - - 0 1"));
+        assertEquals(PawnStructure.pack(35 - 12, 60 - 15), evaluate("4k3/8/4P3/8/8/8/8/4K3 w - - 0 1"));
+        assertEquals(PawnStructure.pack(0, 0), evaluate("4k3/8/8/8/8/8/8/4K3 w - - 0 1"));
+    }
+
+    @Test
+    public void testCaching() {
+        PawnHashTable table = new PawnHashTable(16);
+        assertEquals(1024, table.getEntryCount());
+        ChessBoard board = new ChessBoard(PerftSuite.POSITIONS[1][1]);
+        long scores = table.getScores(board);
+        assertEquals(PawnStructure.evaluate(board.whiteBitBoards[5], board.blackBitBoards[5]), scores);
+        assertEquals(0, table.getHits());
+
+        // a piece move keeps the pawn key, a pawn move changes it
+        board.makeMove(moveFor(board, "e1d1"));
+        assertEquals(scores, table.getScores(board));
+        assertEquals(1, table.getHits());
+        board.undoLastMove();
+        board.makeMove(moveFor(board, "a2a3"));
+        assertNotEquals(new ChessBoard(PerftSuite.POSITIONS[1][1]).getPawnKey(), board.getPawnKey());
+        assertEquals(PawnStructure.evaluate(board.whiteBitBoards[5], board.blackBitBoards[5]), table.getScores(board));
+        assertEquals(2, table.getProbes() - table.getHits());
+    }
+
+    // pawn structures change rarely inside a search tree
+    @Test
+    public void testSearchHitRate() {
+        ChessEngine engine = new ChessEngine(16);
+        engine.getBestMove(new ChessBoard(PerftSuite.POSITIONS[1][1]), SearchLimits.depth(4));
+        PawnHashTable table = ((ClassicalEvaluator) engine.getEvaluator()).getPawnHashTable();
+        assertTrue(table.getHits() > 0.9 * table.getProbes(), table.getHits() + " of " + table.getProbes());
+    }
+
+    private static int moveFor(ChessBoard board, String algebraic) {
+        int[] moves = new int[ChessBoard.MAX_MOVES];
+        int moveCount = board.generateLegalMoves(moves);
+        for (int i = 0; i < moveCount; i++) {
+            if (MoveEncoding.toAlgebraic(moves[i]).equals(algebraic)) return moves[i];
+        }
+        throw new AssertionError("no move " + algebraic);
+    }
+}
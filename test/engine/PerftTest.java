@@ -0,0 +1,182 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerftTest {
+
+    @Test
+    public void testStandardPositionsShallow() {
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessBoard board = new ChessBoard(position[1]);
+            for (int depth = 1; depth <= 3; depth++) {
+                assertEquals(Long.parseLong(position[depth + 1]), board.perft(depth),
+                        position[0] + " depth " + depth);
+            }
+        }
+    }
+
+    @Test
+    public void testPerftLeavesBoardUnchanged() {
+        ChessBoard board = new ChessBoard(PerftSuite.POSITIONS[1][1]);
+        long key = board.getZobristKey();
+        String before = board.toString();
+        board.perft(3);
+        assertEquals(key, board.getZobristKey());
+        assertEquals(before, board.toString());
+    }
+
+    @Test
+    public void testDivideSumsToPerft() {
+        ChessBoard board = new ChessBoard();
+        Map<String, Long> divide = board.divide(3);
+        assertEquals(20, divide.size());
+        assertEquals(600, divide.get("e2e4"));
+        assertEquals(8902, divide.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void testLoadFen() {
+        assertEquals(new ChessBoard().getZobristKey(), new ChessBoard(ChessBoard.STARTING_FEN).getZobristKey());
+
+        ChessBoard board = new ChessBoard("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3");
+        assertEquals(31, board.perft(1)); // includes exf6 en passant
+        assertEquals(board.computeZobristKey(), board.getZobristKey());
+
+        assertThrows(IllegalArgumentException.class, () -> new ChessBoard("8/8/8 w - -"));
+    }
+
+    // the pin/check aware generator must agree with make, test and undo filtering
+    @Test
+    public void testLegalGeneratorMatchesFiltering() {
+        int[] fast = new int[ChessBoard.MAX_MOVES];
+        int[] reference = new int[ChessBoard.MAX_MOVES];
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessBoard board = new ChessBoard(position[1]);
+            int moveCount = board.generateLegalMoves(fast);
+            for (int i = 0; i < moveCount; i++) {
+                board.makeMove(fast[i]);
+                assertEquals(board.generateLegalMovesByFiltering(reference), board.generateLegalMoves(fast.clone()),
+                        position[0] + " after " + MoveEncoding.toAlgebraic(fast[i]));
+                board.undoLastMove();
+            }
+        }
+    }
+
+    // captures only generation is the full move list filtered to captures and queen promotions (no underpromotions)
+    @Test
+    public void testCapturesMatchFilteredLegalMoves() {
+        int[] rootMoves = new int[ChessBoard.MAX_MOVES];
+        int[] all = new int[ChessBoard.MAX_MOVES];
+        int[] captures = new int[ChessBoard.MAX_MOVES];
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessBoard board = new ChessBoard(position[1]);
+            int rootCount = board.generateLegalMoves(rootMoves);
+            for (int i = 0; i < rootCount; i++) {
+                board.makeMove(rootMoves[i]);
+                int moveCount = board.generateLegalMoves(all);
+                int[] expected = Arrays.stream(all, 0, moveCount)
+                        .filter(move -> MoveEncoding.isPromotion(move) ? MoveEncoding.getPromotionPiece(move) == 1
+                                : MoveEncoding.isCapture(move))
+                        .sorted().toArray();
+                int[] actual = Arrays.stream(captures, 0, board.generateLegalCaptures(captures)).sorted().toArray();
+                assertArrayEquals(expected, actual, position[0] + " after " + MoveEncoding.toAlgebraic(rootMoves[i]));
+                board.undoLastMove();
+            }
+        }
+    }
+
+    // the key and eval terms kept up to date in makeMove must match recomputing them at every node
+    @Test
+    public void testIncrementalStateMatchesRecomputed() {
+        for (String[] position : PerftSuite.POSITIONS) {
+            checkIncrementalState(new ChessBoard(position[1]), 3, new int[3][ChessBoard.MAX_MOVES]);
+        }
+    }
+
+    private void checkIncrementalState(ChessBoard board, int depth, int[][] moveBuffers) {
+        assertEquals(board.computeZobristKey(), board.getZobristKey());
+        assertEquals(board.computePawnKey(), board.getPawnKey());
+        int openingScore = 0;
+        int endgameScore = 0;
+        int phaseMaterial = 0;
+        for (int piece = 0; piece < 6; piece++) {
+            for (int pos = 0; pos < 64; pos++) {
+                for (int color = 0; color < 2; color++) {
+                    long bitBoard = color == 0 ? board.whiteBitBoards[piece] : board.blackBitBoards[piece];
+                    if ((bitBoard & (1L << (63 - pos))) != 0) {
+                        openingScore += EvalTables.OPENING_VALUES[color][piece][pos];
+                        endgameScore += EvalTables.ENDGAME_VALUES[color][piece][pos];
+                        phaseMaterial += EvalTables.PHASE_VALUES[color][piece];
+                    }
+                }
+            }
+        }
+        assertEquals(openingScore, board.getOpeningScore());
+        assertEquals(endgameScore, board.getEndgameScore());
+        assertEquals(phaseMaterial, board.getPhaseMaterial());
+        if (depth == 0) return;
+
+        if (!board.isInCheck()) {
+            long key = board.getZobristKey();
+            board.makeNullMove();
+            assertEquals(board.computeZobristKey(), board.getZobristKey());
+            board.undoNullMove();
+            assertEquals(key, board.getZobristKey());
+        }
+
+        int[] moves = moveBuffers[depth - 1];
+        int moveCount = board.generateLegalMoves(moves);
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            checkIncrementalState(board, depth - 1, moveBuffers);
+            board.undoLastMove();
+        }
+    }
+
+    // captures and quiets together are exactly the legal moves, and toLegalMove accepts exactly those
+    @Test
+    public void testStagedGenerationMatchesLegalMoves() {
+        int[] rootMoves = new int[ChessBoard.MAX_MOVES];
+        for (String[] position : PerftSuite.POSITIONS) {
+            ChessBoard board = new ChessBoard(position[1]);
+            int rootCount = board.generateLegalMoves(rootMoves);
+            checkStagedGeneration(board, position[0]);
+            for (int i = 0; i < rootCount; i++) {
+                board.makeMove(rootMoves[i]);
+                checkStagedGeneration(board, position[0] + " after " + MoveEncoding.toAlgebraic(rootMoves[i]));
+                board.undoLastMove();
+            }
+        }
+    }
+
+    private void checkStagedGeneration(ChessBoard board, String message) {
+        int[] all = new int[ChessBoard.MAX_MOVES];
+        int[] staged = new int[2 * ChessBoard.MAX_MOVES];
+        int moveCount = board.generateLegalMoves(all);
+        int[] quiets = new int[ChessBoard.MAX_MOVES];
+        int captureCount = board.generateLegalCaptures(staged);
+        int quietCount = board.generateLegalQuiets(quiets);
+        System.arraycopy(quiets, 0, staged, captureCount, quietCount);
+        int[] expected = Arrays.stream(all, 0, moveCount).sorted().toArray();
+        assertArrayEquals(expected, Arrays.stream(staged, 0, captureCount + quietCount).sorted().toArray(), message);
+
+        int accepted = 0;
+        for (int source = 0; source < 64; source++) {
+            for (int target = 0; target < 64; target++) {
+                for (int promotion = 0; promotion <= 4; promotion++) {
+                    int move = board.toLegalMove(source | (target << 6) | (promotion << 12));
+                    if (move != MoveEncoding.NO_MOVE) {
+                        assertTrue(Arrays.binarySearch(expected, move) >= 0, message + " accepted " + MoveEncoding.toAlgebraic(move));
+                        accepted++;
+                    }
+                }
+            }
+        }
+        assertEquals(moveCount, accepted, message);
+    }
+}
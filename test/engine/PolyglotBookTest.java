@@ -0,0 +1,110 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolyglotBookTest {
+    private static final String CASTLE_FEN = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1";
+
+    @TempDir
+    Path tempDir;
+
+    // Polyglot move for e.g. "e2e4", rows counted from rank 1
+    private static int polyglotMove(String move) {
+        return (move.charAt(2) - 'a') | (move.charAt(3) - '1') << 3 | (move.charAt(0) - 'a') << 6 | (move.charAt(1) - '1') << 9;
+    }
+
+    // a small book with the start position, a castling position and two unrelated keys
+    private PolyglotBook createBook() throws Exception {
+        long startKey = PolyglotBook.getKey(new ChessBoard());
+        long castleKey = PolyglotBook.getKey(new ChessBoard(CASTLE_FEN));
+
+        long[][] entries = {
+                {startKey, polyglotMove("e2e4"), 1},
+                {startKey, polyglotMove("d2d4"), 3},
+                {startKey, polyglotMove("g1f3"), 0}, // never played
+                {castleKey, polyglotMove("e1h1"), 1},
+                {0x0123456789ABCDEFL, polyglotMove("a2a3"), 5},
+                {0xFEDCBA9876543210L, polyglotMove("a2a3"), 5},
+        };
+        Arrays.sort(entries, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        ByteBuffer buffer = ByteBuffer.allocate(entries.length * 16);
+        for (long[] entry : entries) {
+            buffer.putLong(entry[0]).putShort((short) entry[1]).putShort((short) entry[2]).putInt(0);
+        }
+        Path bookFile = tempDir.resolve("book.bin");
+        Files.write(bookFile, buffer.array());
+        return PolyglotBook.open(bookFile);
+    }
+
+    @Test
+    public void testProbe() throws Exception {
+        PolyglotBook book = createBook();
+        assertEquals(6, book.getEntryCount());
+
+        Random random = new Random(1);
+        int[] counts = new int[2];
+        for (int i = 0; i < 4000; i++) {
+            String move = MoveEncoding.toAlgebraic(book.probe(new ChessBoard(), random));
+            assertTrue(move.equals("e2e4") || move.equals("d2d4"), move);
+            counts[move.equals("d2d4") ? 1 : 0]++;
+        }
+        assertTrue(counts[1] > 2 * counts[0], Arrays.toString(counts)); // weighted 3 to 1
+
+        int castle = book.probe(new ChessBoard(CASTLE_FEN), random);
+        assertTrue(MoveEncoding.isCastle(castle));
+        assertEquals("e1g1", MoveEncoding.toAlgebraic(castle));
+
+        assertEquals(MoveEncoding.NO_MOVE, book.probe(new ChessBoard(PerftSuite.POSITIONS[1][1]), random));
+    }
+
+    // the sample keys published with the Polyglot book format spec
+    @Test
+    public void testSpecKeys() {
+        String[][] positions = {
+                {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "463b96181691fc9c"},
+                {"rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", "823c9b50fd114196"},
+                {"rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 2", "0756b94461c50fb0"},
+                {"rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR b KQkq - 0 2", "662fafb965db29d4"},
+                {"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3", "22a48b5a8e47ff78"},
+                {"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR b kq - 0 3", "652a607ca3f242c1"},
+                {"rnbq1bnr/ppp1pkpp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR w - - 0 4", "00fdd303c946bdd9"},
+                {"rnbqkbnr/p1pppppp/8/8/PpP4P/8/1P1PPPP1/RNBQKBNR b KQkq c3 0 3", "3c8123ea7b067637"},
+                {"rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 0 4", "5c3f9b829b279560"},
+        };
+        for (String[] position : positions) {
+            assertEquals(Long.parseUnsignedLong(position[1], 16), PolyglotBook.getKey(new ChessBoard(position[0])), position[0]);
+        }
+    }
+
+    @Test
+    public void testEnPassantKey() {
+        // no black pawn can take on e3, so the square doesn't change the key
+        assertEquals(PolyglotBook.getKey(new ChessBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")),
+                PolyglotBook.getKey(new ChessBoard("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1")));
+        assertNotEquals(PolyglotBook.getKey(new ChessBoard("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")),
+                PolyglotBook.getKey(new ChessBoard("rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1")));
+    }
+
+    @Test
+    public void testEngineUsesBook() throws Exception {
+        PolyglotBook book = createBook();
+        ChessEngine engine = new ChessEngine(1);
+        engine.setOpeningBook(book);
+        String move = MoveEncoding.toAlgebraic(MoveEncoding.encode(engine.getBestMove(new ChessBoard())));
+        assertTrue(move.equals("e2e4") || move.equals("d2d4"), move);
+        assertEquals(0, engine.nodesSearched);
+
+        // out of the book it searches as usual
+        assertNotNull(engine.getBestMove(new ChessBoard(PerftSuite.POSITIONS[1][1]), SearchLimits.depth(2)));
+        assertTrue(engine.nodesSearched > 0);
+    }
+}
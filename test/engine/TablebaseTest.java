@@ -0,0 +1,90 @@
+package engine;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TablebaseTest {
+    @TempDir
+    static Path tempDir;
+
+    private static Tablebase tablebase;
+
+    // the 3 piece endings only take a few seconds to build
+    @BeforeAll
+    public static void generate() throws Exception {
+        tablebase = TablebaseGenerator.generate(tempDir, 3);
+    }
+
+    private static int probe(String fen) {
+        return tablebase.probe(new ChessBoard(fen));
+    }
+
+    @Test
+    public void testEndings() {
+        assertEquals(List.of("KQvK", "KRvK", "KPvK"), TablebaseGenerator.getEndings(3));
+        List<String> endings = TablebaseGenerator.getEndings(4);
+        assertTrue(endings.contains("KQvKR"));
+        assertTrue(endings.contains("KNNvK"));
+        assertFalse(endings.contains("KRvKQ")); // the stronger side is white
+        assertFalse(endings.contains("KPvKP")); // en passant
+        assertEquals(3, tablebase.getTableCount());
+    }
+
+    @Test
+    public void testProbe() throws Exception {
+        assertEquals(-1, probe("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1")); // mated
+        assertEquals(2, probe("7k/8/6K1/8/8/8/8/5Q2 w - - 0 1")); // Qf8#
+        assertEquals(0, probe("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1")); // stalemate
+        // black has the queen, looked up with the board flipped
+        assertEquals(-1, probe("8/8/8/8/8/6k1/6q1/7K w - - 0 1"));
+        assertEquals(2, probe("5q2/8/8/8/8/6k1/8/7K b - - 0 1"));
+
+        // the king in front on the sixth rank wins either way, one step further is stalemate
+        assertTrue(probe("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1") > 0);
+        assertTrue(probe("4k3/8/4K3/4P3/8/8/8/8 b - - 0 1") < 0);
+        assertEquals(0, probe("4k3/4P3/4K3/8/8/8/8/8 b - - 0 1"));
+        assertEquals(0, probe("k7/8/K7/P7/8/8/8/8 b - - 0 1")); // rook pawn
+
+        // every mirror image has the same value
+        int value = probe("8/8/8/8/3k4/8/1R6/2K5 w - - 0 1");
+        assertTrue(value > 0 && value % 2 == 0, "" + value);
+        assertEquals(value, probe("8/8/8/8/4k3/8/6R1/5K2 w - - 0 1"));
+        assertEquals(value, probe("2k5/1r6/8/3K4/8/8/8/8 b - - 0 1"));
+        assertEquals(value, probe("8/8/8/8/3k4/K7/1R6/8 w - - 0 1")); // in the a1-h8 diagonal
+
+        assertEquals(Tablebase.UNKNOWN, probe("4k3/8/8/8/8/8/8/4K2R w K - 0 1")); // castle rights
+        assertEquals(Tablebase.UNKNOWN, probe("4k3/8/8/8/8/8/8/3QK2R w - - 0 1")); // too many pieces
+        assertEquals(0, probe("4k3/8/8/8/8/8/8/3NK3 w - - 0 1")); // no table needed
+
+        // a fresh open maps the files written by generate
+        Tablebase opened = Tablebase.open(tempDir);
+        assertEquals(3, opened.getTableCount());
+        assertEquals(2, opened.probe(new ChessBoard("7k/8/6K1/8/8/8/8/5Q2 w - - 0 1")));
+    }
+
+    @Test
+    public void testEngineUsesTablebase() {
+        ChessEngine engine = new ChessEngine(1);
+        engine.setTablebase(tablebase);
+
+        // covered at the root, answered without searching
+        ChessBoard board = new ChessBoard("8/8/8/8/3k4/8/1R6/2K5 w - - 0 1");
+        Move move = engine.getBestMove(board);
+        assertEquals(0, engine.nodesSearched);
+        assertEquals(Integer.MAX_VALUE - (probe("8/8/8/8/3k4/8/1R6/2K5 w - - 0 1") - 1), engine.completedScore);
+        board.makeMove(MoveEncoding.encode(move));
+        assertEquals(-probe("8/8/8/8/3k4/8/1R6/2K5 w - - 0 1") + 1, tablebase.probe(board)); // keeps the fastest mate
+
+        // KQvKN isn't loaded, taking the knight leads into KQvK inside the search
+        Move capture = engine.getBestMove(new ChessBoard("4k3/8/8/3n4/8/8/8/3QK3 w - - 0 1"), SearchLimits.depth(2));
+        assertEquals("d1d5", MoveEncoding.toAlgebraic(MoveEncoding.encode(capture)));
+        assertTrue(engine.completedScore > ChessEngine.MATE_THRESHOLD);
+        assertTrue(engine.nodesSearched > 0);
+    }
+}
@@ -0,0 +1,99 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import static engine.TranspositionTable.*;
+import static engine.MoveEncoding.NO_MOVE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TranspositionTableTest {
+
+    @Test
+    public void testStoreAndProbe() {
+        TranspositionTable table = new TranspositionTable(1);
+        long key = 0x123456789ABCDEFL;
+        assertEquals(MISS, table.probe(key));
+
+        table.store(key, 5, TT_BETA, -1234, 0x1ABC);
+        long entry = table.probe(key);
+        assertNotEquals(MISS, entry);
+        assertEquals(5, getDepth(entry));
+        assertEquals(TT_BETA, getFlag(entry));
+        assertEquals(-1234, getScore(entry));
+        assertEquals(0x1ABC, getMove(entry));
+    }
+
+    @Test
+    public void testExtremeScoresAndNoMove() {
+        TranspositionTable table = new TranspositionTable(1);
+        table.store(1L, 0, TT_EXACT, Integer.MAX_VALUE - 3, NO_MOVE);
+        long entry = table.probe(1L);
+        assertEquals(Integer.MAX_VALUE - 3, getScore(entry));
+        assertEquals(NO_MOVE, getMove(entry));
+
+        table.store(2L, 0, TT_ALPHA, -Integer.MAX_VALUE + 3, NO_MOVE);
+        assertEquals(-Integer.MAX_VALUE + 3, getScore(table.probe(2L)));
+    }
+
+    // the search stores MoveEncoding.getCompact(bestMove), which is 0x7FFF rather than NO_MOVE when there
+    // is no move, both forms must keep the move already stored for the position
+    @Test
+    public void testKeepsBestMoveWhenRestoredWithoutMove() {
+        TranspositionTable table = new TranspositionTable(1);
+        for (int noMove : new int[]{NO_MOVE, MoveEncoding.getCompact(NO_MOVE)}) {
+            table.clear();
+            table.store(42L, 3, TT_EXACT, 10, 0x0F0F);
+            table.store(42L, 4, TT_ALPHA, 5, noMove);
+            assertEquals(0x0F0F, getMove(table.probe(42L)));
+            assertEquals(4, getDepth(table.probe(42L)));
+
+            table.store(43L, 2, TT_ALPHA, 5, noMove);
+            assertEquals(NO_MOVE, getMove(table.probe(43L)));
+        }
+    }
+
+    @Test
+    public void testOldGenerationReplacedFirst() {
+        TranspositionTable table = new TranspositionTable(1);
+        long buckets = table.getEntryCount() / 4;
+        // five keys sharing one bucket, the first is deep but from an older search
+        table.store(0, 12, TT_EXACT, 0, NO_MOVE);
+        table.newSearch();
+        for (int i = 1; i <= 3; i++) {
+            table.store(i * buckets, 10, TT_EXACT, 0, NO_MOVE);
+        }
+        table.store(4 * buckets, 1, TT_EXACT, 0, NO_MOVE);
+        assertEquals(MISS, table.probe(0));
+        assertNotEquals(MISS, table.probe(4 * buckets));
+    }
+
+    // threads hammer one small table, an entry read back must always be one that was stored for that key
+    @Test
+    public void testConcurrentStoresNeverReturnTornEntries() throws InterruptedException {
+        TranspositionTable table = new TranspositionTable(1);
+        long keySpace = table.getEntryCount() * 4L;
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random(thread);
+                for (int i = 0; i < 200_000; i++) {
+                    long key = (random.nextLong() & Long.MAX_VALUE) % keySpace;
+                    table.store(key, thread, TT_EXACT, (int) key, 0);
+                    long entry = table.probe(key ^ 1);
+                    if (entry != MISS && getScore(entry) != (int) (key ^ 1)) {
+                        failed[thread] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean threadFailed : failed) {
+            assertFalse(threadFailed);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UciMainTest {
+
+    @Test
+    public void testParseMove() {
+        ChessBoard board = new ChessBoard("1r2k3/P7/8/8/8/8/8/4K3 w - - 0 1");
+        assertEquals(MoveEncoding.NO_MOVE, UciMain.parseMove(board, "e2e4")); // no piece there
+        assertEquals(MoveEncoding.NO_MOVE, UciMain.parseMove(board, "a7b8")); // promotion piece missing
+        assertEquals(MoveEncoding.NO_MOVE, UciMain.parseMove(board, "z9a1"));
+        int promotion = UciMain.parseMove(board, "a7b8n");
+        assertTrue(MoveEncoding.isCapture(promotion));
+        assertEquals(4, MoveEncoding.getPromotionPiece(promotion));
+        assertEquals(1, MoveEncoding.getPromotionPiece(UciMain.parseMove(board, "a7a8q")));
+
+        board.loadFen("r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1");
+        assertTrue(MoveEncoding.isCastle(UciMain.parseMove(board, "e8c8")));
+    }
+
+    @Test
+    public void testSession() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        UciMain uci = new UciMain(new PrintStream(output, true));
+        assertTrue(uci.handleCommand("uci"));
+        uci.handleCommand("isready");
+        uci.handleCommand("setoption name Hash value 4");
+        uci.handleCommand("position fen 6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1");
+        uci.handleCommand("go depth 3");
+        uci.handleCommand("position startpos moves e2e4 e7e5"); // waits for the search to finish
+        assertFalse(uci.handleCommand("quit"));
+
+        String[] lines = output.toString().split("\\R");
+        assertEquals("id name Koala Chess", lines[0]);
+        assertTrue(output.toString().contains("uciok"));
+        assertTrue(output.toString().contains("readyok"));
+        assertTrue(output.toString().contains("score mate 1"));
+        assertEquals("bestmove d1d8", lines[lines.length - 1]);
+    }
+}